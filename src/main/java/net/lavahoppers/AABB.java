@@ -8,6 +8,8 @@ package net.lavahoppers;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * An axis aligned bounding box is a primative used to divide space.
@@ -25,6 +27,14 @@ public class AABB {
     
     private ArrayList<Triangle> leaves = new ArrayList<>();
 
+    /* constants for the surface area heuristic */
+    public static final int SAH_BINS = 16;
+    public static final double SAH_TRAVERSAL_COST = 1.0;
+    public static final double SAH_INTERSECTION_COST = 1.0;
+
+    /* nodes with fewer triangles are built on one thread */
+    public static final int PARALLEL_GRAIN = 4096;
+
     /**
      * Create a new Axis aligned bounding box.
      */
@@ -76,6 +86,18 @@ public class AABB {
         return leftChild;
     }
 
+    /**
+     * Make the caller an interior node with two children
+     * 
+     * @param left  the left child
+     * @param right the right child
+     */
+    void setChildren(AABB left, AABB right) {
+        leftChild = left;
+        rightChild = right;
+        setIsLeafNode(false);
+    }
+
     /**
      * returns the primatives of the bounding box 
      * <p>
@@ -154,82 +176,426 @@ public class AABB {
      * the caller
      */
     public void buildBVH() {
+        buildSerial(false);
+    }
+
+    /**
+     * Create a bounding volume hierarchy from all the leaves contained in
+     * the caller using the binned surface area heuristic.
+     * <p>
+     * Every node tests {@value #SAH_BINS} candidate planes on each of the
+     * three axes, binned over the centroids of its triangles, and keeps the
+     * plane with the lowest expected cost. A node stays a leaf once no plane
+     * is cheaper than intersecting all of its triangles directly.
+     * 
+     * @see <a href=https://www.pbr-book.org/3ed-2018/Primitives_and_Intersection_Acceleration/Bounding_Volume_Hierarchies>
+     *      PBR Book: Bounding Volume Hierarchies</a>
+     */
+    public void buildSAH() {
+        buildSerial(true);
+    }
+
+    /**
+     * Create a bounding volume hierarchy from all the leaves contained in
+     * the caller using several threads.
+     * <p>
+     * Every node is split exactly as the serial builders would split it, so
+     * the tree is the same for any number of threads. The two halves of a
+     * node are built as separate fork join tasks until a node has fewer than
+     * {@value #PARALLEL_GRAIN} triangles, below which it is cheaper to finish
+     * the subtree on one thread.
+     * 
+     * @param sah     true to split with the surface area heuristic, false to
+     *                split at the midpoint
+     * @param threads the number of threads to build with
+     */
+    public void buildParallel(boolean sah, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new BuildTask(this, sah));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A fork join task that builds the hierarchy below one node
+     */
+    private static class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AABB node;
+        private final boolean sah;
+
+        BuildTask(AABB node, boolean sah) {
+            this.node = node;
+            this.sah = sah;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (node.leaves.size() < PARALLEL_GRAIN) {
+                node.buildSerial(sah);
+                return;
+            }
+
+            if (node.split(sah))
+                invokeAll(new BuildTask(node.leftChild, sah), 
+                          new BuildTask(node.rightChild, sah));
+        }
+
+    }
+
+    /**
+     * Build the hierarchy below the caller on the calling thread
+     * 
+     * @param sah true to split with the surface area heuristic, false to
+     *            split at the midpoint
+     */
+    private void buildSerial(boolean sah) {
 
         LinkedList<AABB> queue = new LinkedList<AABB>();
         queue.add(this);
 
-        while(0 < queue.size()) {
-
+        while (0 < queue.size()) {
             AABB curr = queue.pop();
+            if (curr.split(sah)) {
+                queue.add(curr.leftChild);
+                queue.add(curr.rightChild);
+            }
+        }
+
+    }
+
+    /**
+     * Split the caller into two children if it is worth it
+     * 
+     * @param sah true to split with the surface area heuristic, false to
+     *            split at the midpoint
+     * @return true if the caller was split, false if it stays a leaf
+     */
+    private boolean split(boolean sah) {
+        if (leaves.size() < 2)
+            return false;
+        return sah ? splitSAH() : splitMidpoint();
+    }
 
-            double xLength = curr.max.getX() - curr.min.getX();
-            double yLength = curr.max.getY() - curr.min.getY();
-            double zLength = curr.max.getZ() - curr.min.getZ();
-            double maxLen = Math.max(xLength, Math.max(yLength, zLength));
-            boolean x = xLength == maxLen;
-            boolean y = yLength == maxLen;
-
-            AABB leftChild = new AABB();
-            AABB rightChild = new AABB();
-
-            int tries = 0;
-
-            algo:
-            while (tries < 3) {
-                if (x)
-                    for (Triangle tri : curr.leaves) {
-                        double midPoint = (tri.a.getX() + tri.b.getX() + tri.c.getX()) / 3.0;
-                        if ((midPoint - curr.min.getX()) < (curr.max.getX() - midPoint))
-                            rightChild.add(tri);
-                        else
-                            leftChild.add(tri);
-                    }
-                else if (y)
-                    for (Triangle tri : curr.leaves) {
-                        double midPoint = (tri.a.getY() + tri.b.getY() + tri.c.getY()) / 3.0;
-                        if ((midPoint - curr.min.getY()) < (curr.max.getY() - midPoint))
-                            rightChild.add(tri);
-                        else
-                            leftChild.add(tri);
-                    }
-                else
-                    for (Triangle tri : curr.leaves) {
-                        double midPoint = (tri.a.getZ() + tri.b.getZ() + tri.c.getZ()) / 3.0;
-                        if ((midPoint - curr.min.getZ()) < (curr.max.getZ() - midPoint))
-                            rightChild.add(tri);
-                        else
-                            leftChild.add(tri);
-                    }
-
-                if (leftChild.leafCount() > 0 && rightChild.leafCount() > 0) {
-                    curr.leftChild = leftChild;
-                    curr.rightChild = rightChild;
-                    curr.setIsLeafNode(false);
-                    if (leftChild.leafCount() > 1)
-                        queue.add(leftChild);
-                    if (rightChild.leafCount() > 1)
-                        queue.add(rightChild);
-                    break algo;
+    /**
+     * Split the caller at the spatial midpoint of its longest axis, falling
+     * back to the other axes if every triangle ends up on one side
+     * 
+     * @return true if the caller was split, false if it stays a leaf
+     */
+    private boolean splitMidpoint() {
+
+        AABB curr = this;
+
+        double xLength = curr.max.getX() - curr.min.getX();
+        double yLength = curr.max.getY() - curr.min.getY();
+        double zLength = curr.max.getZ() - curr.min.getZ();
+        double maxLen = Math.max(xLength, Math.max(yLength, zLength));
+        boolean x = xLength == maxLen;
+        boolean y = yLength == maxLen;
+
+        AABB leftChild = new AABB();
+        AABB rightChild = new AABB();
+
+        int tries = 0;
+
+        while (tries < 3) {
+            if (x)
+                for (Triangle tri : curr.leaves) {
+                    double midPoint = (tri.a.getX() + tri.b.getX() + tri.c.getX()) / 3.0;
+                    if ((midPoint - curr.min.getX()) < (curr.max.getX() - midPoint))
+                        rightChild.add(tri);
+                    else
+                        leftChild.add(tri);
+                }
+            else if (y)
+                for (Triangle tri : curr.leaves) {
+                    double midPoint = (tri.a.getY() + tri.b.getY() + tri.c.getY()) / 3.0;
+                    if ((midPoint - curr.min.getY()) < (curr.max.getY() - midPoint))
+                        rightChild.add(tri);
+                    else
+                        leftChild.add(tri);
+                }
+            else
+                for (Triangle tri : curr.leaves) {
+                    double midPoint = (tri.a.getZ() + tri.b.getZ() + tri.c.getZ()) / 3.0;
+                    if ((midPoint - curr.min.getZ()) < (curr.max.getZ() - midPoint))
+                        rightChild.add(tri);
+                    else
+                        leftChild.add(tri);
+                }
+
+            if (leftChild.leafCount() > 0 && rightChild.leafCount() > 0) {
+                curr.leftChild = leftChild;
+                curr.rightChild = rightChild;
+                curr.setIsLeafNode(false);
+                return true;
+            } else {
+                leftChild = new AABB();
+                rightChild = new AABB();
+                tries++;
+
+                if (x) {
+                    y = true;
+                    x = false;
+                } else if (y) {
+                    x = false;
+                    y = false;
                 } else {
-                    leftChild = new AABB();
-                    rightChild = new AABB();
-                    tries++;
-
-                    if (x) {
-                        y = true;
-                        x = false;
-                    } else if (y) {
-                        x = false;
-                        y = false;
-                    } else {
-                        x = true;
-                        y = false;
-                    }
+                    x = true;
+                    y = false;
                 }
             }
+        }
+
+        return false;
+    }
+
+    /**
+     * Split the caller at the cheapest binned plane according to the surface
+     * area heuristic
+     * 
+     * @see AABB#buildSAH()
+     * @return true if the caller was split, false if it stays a leaf
+     */
+    private boolean splitSAH() {
+
+        int[] binCount = new int[SAH_BINS];
+        double[] binBounds = new double[SAH_BINS * 6];
+        double[] rightArea = new double[SAH_BINS];
+        double[] sweep = new double[6];
+        double[] centroidMin = new double[3];
+        double[] centroidMax = new double[3];
+
+        AABB curr = this;
+        int n = curr.leaves.size();
+
+        centroidMin[0] = centroidMin[1] = centroidMin[2] = Double.MAX_VALUE;
+        centroidMax[0] = centroidMax[1] = centroidMax[2] = -Double.MAX_VALUE;
+        for (Triangle tri : curr.leaves)
+            for (int axis = 0; axis < 3; axis++) {
+                double c = centroid(tri, axis);
+                centroidMin[axis] = Math.min(centroidMin[axis], c);
+                centroidMax[axis] = Math.max(centroidMax[axis], c);
+            }
+
+        double leafCost = SAH_INTERSECTION_COST * n;
+        double bestCost = Double.MAX_VALUE;
+        int bestAxis = -1;
+        int bestPlane = -1;
+
+        for (int axis = 0; axis < 3; axis++) {
 
+            double extent = centroidMax[axis] - centroidMin[axis];
+            if (extent <= 0)
+                continue;
+
+            for (int i = 0; i < SAH_BINS; i++) {
+                binCount[i] = 0;
+                resetBounds(binBounds, i);
+            }
+
+            double binScale = SAH_BINS / extent;
+            for (Triangle tri : curr.leaves) {
+                int bin = binIndex(centroid(tri, axis), centroidMin[axis], 
+                    binScale);
+                binCount[bin]++;
+                growBounds(binBounds, bin, tri);
+            }
+
+            /* sweep from the right to get the area of every right side */
+            resetBounds(sweep, 0);
+            for (int i = SAH_BINS - 1; 0 < i; i--) {
+                mergeBounds(sweep, binBounds, i);
+                rightArea[i] = area(sweep);
+            }
+
+            /* sweep from the left and evaluate the plane after each bin */
+            resetBounds(sweep, 0);
+            int leftCount = 0;
+            for (int i = 0; i < SAH_BINS - 1; i++) {
+                mergeBounds(sweep, binBounds, i);
+                leftCount += binCount[i];
+                int rightCount = n - leftCount;
+                if (leftCount == 0 || rightCount == 0)
+                    continue;
+                double cost = area(sweep) * leftCount + 
+                    rightArea[i + 1] * rightCount;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestPlane = i;
+                }
+            }
+
+        }
+
+        if (bestAxis == -1)
+            return false;
+
+        double splitCost = SAH_TRAVERSAL_COST + SAH_INTERSECTION_COST * 
+            bestCost / curr.surfaceArea();
+        if (leafCost <= splitCost)
+            return false;
+
+        AABB leftChild = new AABB();
+        AABB rightChild = new AABB();
+        double binScale = SAH_BINS / 
+            (centroidMax[bestAxis] - centroidMin[bestAxis]);
+        for (Triangle tri : curr.leaves) {
+            int bin = binIndex(centroid(tri, bestAxis), 
+                centroidMin[bestAxis], binScale);
+            if (bin <= bestPlane)
+                leftChild.add(tri);
+            else
+                rightChild.add(tri);
+        }
+
+        curr.leftChild = leftChild;
+        curr.rightChild = rightChild;
+        curr.setIsLeafNode(false);
+        return true;
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through the hierarchy below the
+     * caller according to the surface area heuristic.
+     * <p>
+     * The cost is relative to a ray that is known to hit the caller, so a
+     * single leaf costs exactly its triangle count.
+     * 
+     * @return the SAH cost of the hierarchy
+     */
+    public double sahCost() {
+
+        double rootArea = surfaceArea();
+        double cost = 0;
+
+        LinkedList<AABB> queue = new LinkedList<AABB>();
+        queue.add(this);
+
+        while (0 < queue.size()) {
+            AABB curr = queue.pop();
+            double areaRatio = rootArea > 0 ? curr.surfaceArea() / rootArea : 1;
+            if (curr.isLeafNode()) {
+                cost += SAH_INTERSECTION_COST * areaRatio * curr.leafCount();
+            } else {
+                cost += SAH_TRAVERSAL_COST * areaRatio;
+                queue.add(curr.leftChild);
+                queue.add(curr.rightChild);
+            }
         }
 
+        return cost;
+    }
+
+    /**
+     * Get the number of nodes in the hierarchy below and including the caller
+     * 
+     * @return the number of nodes
+     */
+    public int nodeCount() {
+        if (isLeafNode())
+            return 1;
+        return 1 + leftChild.nodeCount() + rightChild.nodeCount();
+    }
+
+    /**
+     * Get the number of triangle references in the leaves below and 
+     * including the caller
+     * <p>
+     * This is more than the number of triangles when a builder puts one
+     * triangle in several leaves.
+     * 
+     * @return the number of triangle references
+     */
+    public int referenceCount() {
+        if (isLeafNode())
+            return leafCount();
+        return leftChild.referenceCount() + rightChild.referenceCount();
+    }
+
+    /**
+     * Get the surface area of the caller
+     * 
+     * @return the surface area of the caller, 0 if it is empty
+     */
+    public double surfaceArea() {
+        if (min == null)
+            return 0;
+        double x = max.getX() - min.getX();
+        double y = max.getY() - min.getY();
+        double z = max.getZ() - min.getZ();
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Get one component of the centroid of a triangle
+     * 
+     * @param tri  the triangle
+     * @param axis 0, 1 or 2 for the x, y or z component
+     * @return the component of the centroid
+     */
+    private static double centroid(Triangle tri, int axis) {
+        switch (axis) {
+            case 0:  return (tri.a.getX() + tri.b.getX() + tri.c.getX()) / 3.0;
+            case 1:  return (tri.a.getY() + tri.b.getY() + tri.c.getY()) / 3.0;
+            default: return (tri.a.getZ() + tri.b.getZ() + tri.c.getZ()) / 3.0;
+        }
+    }
+
+    /**
+     * Get the bin that a centroid component falls in
+     */
+    private static int binIndex(double c, double min, double binScale) {
+        int bin = (int)((c - min) * binScale);
+        return bin < SAH_BINS ? bin : SAH_BINS - 1;
+    }
+
+    /*
+     * The binning helpers below work on boxes packed six doubles at a time
+     * as min x, y, z followed by max x, y, z.
+     */
+
+    private static void resetBounds(double[] b, int i) {
+        b[i * 6] = b[i * 6 + 1] = b[i * 6 + 2] = Double.MAX_VALUE;
+        b[i * 6 + 3] = b[i * 6 + 4] = b[i * 6 + 5] = -Double.MAX_VALUE;
+    }
+
+    private static void growBounds(double[] b, int i, Triangle tri) {
+        growBounds(b, i, tri.a);
+        growBounds(b, i, tri.b);
+        growBounds(b, i, tri.c);
+    }
+
+    private static void growBounds(double[] b, int i, Vector3 v) {
+        b[i * 6    ] = Math.min(b[i * 6    ], v.getX());
+        b[i * 6 + 1] = Math.min(b[i * 6 + 1], v.getY());
+        b[i * 6 + 2] = Math.min(b[i * 6 + 2], v.getZ());
+        b[i * 6 + 3] = Math.max(b[i * 6 + 3], v.getX());
+        b[i * 6 + 4] = Math.max(b[i * 6 + 4], v.getY());
+        b[i * 6 + 5] = Math.max(b[i * 6 + 5], v.getZ());
+    }
+
+    private static void mergeBounds(double[] dst, double[] src, int i) {
+        for (int k = 0; k < 3; k++) {
+            dst[k] = Math.min(dst[k], src[i * 6 + k]);
+            dst[k + 3] = Math.max(dst[k + 3], src[i * 6 + k + 3]);
+        }
+    }
+
+    private static double area(double[] b) {
+        if (b[3] < b[0])
+            return 0;
+        double x = b[3] - b[0];
+        double y = b[4] - b[1];
+        double z = b[5] - b[2];
+        return 2.0 * (x * y + y * z + z * x);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package net.lavahoppers;
+
+/*
+ * Accelerator.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A structure that finds the triangles of a mesh a ray hits without testing
+ * every one of them.
+ * <p>
+ * Every mesh owns one, picked by the {@code accelerator} setting, and the
+ * rest of the renderer only ever talks to it through this interface. That
+ * way the bounding volume hierarchies, the kd-tree and the grid can all be
+ * timed against each other on the same scenes.
+ * 
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+interface Accelerator {
+
+    /**
+     * Find the closest triangle along a ray
+     * <p>
+     * The hit is only kept if it is closer than the one already in
+     * {@code state}, so several structures can be searched with one state.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    void intersect(Vector3 origin, Vector3 ray, Traversal state);
+
+    /**
+     * See if anything lies along a ray closer than some distance
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     */
+    boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+        Traversal state);
+
+    /**
+     * Recompute the structure for triangles that have moved without changing
+     * its shape
+     * 
+     * @return false if the structure can not be refitted and has to be built
+     *         again
+     */
+    boolean refit();
+
+    /**
+     * Get the expected cost of tracing a ray through the structure according
+     * to the surface area heuristic
+     * 
+     * @return the SAH cost of the structure
+     */
+    double sahCost();
+
+    /**
+     * Get the box around the whole structure as min x, y, z followed by
+     * max x, y, z
+     * 
+     * @return the bounds of the structure
+     */
+    double[] getBounds();
+
+    /**
+     * Get the number of bytes the structure takes up
+     * 
+     * @return the size of the structure in bytes, not counting triangles
+     */
+    long bytes();
+
+}
@@ -0,0 +1,243 @@
+package net.lavahoppers;
+
+/*
+ * AdaptiveRenderer.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Renders an area of the image spending samples where the noise is.
+ * <p>
+ * A flat patch of sky is done after a sample or two, while the caustics
+ * under the dragon need thousands, so giving every pixel the same number of
+ * samples wastes most of them. Here every pixel first gets
+ * {@code adaptive-base-samples} samples, or {@code rays-per-pixel} if that is
+ * fewer. Then the work goes in rounds: each pixel keeps a running mean and
+ * variance of the luminance of its samples, updated with Welford's method.
+ * From those comes the standard error of its mean, which is how far the
+ * pixel is likely to be from converged. Only
+ * the pixels whose error is above {@code adaptive-threshold} get another
+ * {@code adaptive-base-samples} samples in the next round.
+ * <p>
+ * The errors are measured in 8 bit levels of the saved image, so a pixel
+ * whose mean is sure to clip at white counts as converged. The render stops
+ * once the root mean square of the errors of all pixels is below
+ * {@code adaptive-noise-target}, once no pixel is above the threshold, or
+ * once the pixels have had {@code rays-per-pixel} samples on average. When
+ * the budget can't cover every noisy pixel in a round, the noisiest go
+ * first.
+ * <p>
+ * Sample indices go on from where each pixel left off, so the render comes
+ * out the same whatever the number of threads.
+ * 
+ * @see PathTracer#samplePixel(int, int, int, Vector3)
+ * @see <a href=https://doi.org/10.1080/00401706.1962.10490022>Note on a
+ *      Method for Calculating Corrected Sums of Squares and Products</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class AdaptiveRenderer {
+
+    /* the number of ranges each round is split into per thread, many since
+    noisy pixels bunch up */
+    private static final int CHUNKS_PER_THREAD = 16;
+
+    /* how many standard errors above white a mean has to be to clip */
+    private static final double CLIP_ERRORS = 2;
+
+    private final RangePool pool;
+
+    /* the area being rendered */
+    private int areaX, areaY, areaWidth;
+
+    /* the sum of the samples of every pixel of the area */
+    private double[] red, green, blue;
+
+    /* the number of samples, and the running mean and sum of squared
+    differences from it of the luminance of every pixel */
+    private int[] samples;
+    private double[] mean, m2;
+
+    /* the standard error of the mean of every pixel */
+    private double[] error;
+
+    /**
+     * Create a renderer
+     * 
+     * @param threads the number of threads each round runs on
+     */
+    public AdaptiveRenderer(int threads) {
+        this.pool = new RangePool(threads, CHUNKS_PER_THREAD);
+    }
+
+    /**
+     * Render an area of the image
+     * 
+     * @param x      the lowest x value of the area
+     * @param y      the lowest y value of the area
+     * @param width  the width of the area
+     * @param height the height of the area
+     */
+    public void render(int x, int y, int width, int height) {
+        try {
+            renderArea(x, y, width, height);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void renderArea(int x, int y, int width, int height) {
+
+        int pixels = width * height;
+        areaX = x;
+        areaY = y;
+        areaWidth = width;
+        red = new double[pixels];
+        green = new double[pixels];
+        blue = new double[pixels];
+        samples = new int[pixels];
+        mean = new double[pixels];
+        m2 = new double[pixels];
+        error = new double[pixels];
+
+        /* the first round is clamped to the budget, and needs two samples
+        to measure a variance */
+        int base = Math.max(2, PathTracer.adaptiveBaseSamples);
+        int first = Math.max(2, Math.min(base, PathTracer.raysPerPixel));
+        long budget = (long)PathTracer.raysPerPixel * pixels;
+
+        int[] active = new int[pixels];
+        for (int i = 0; i < pixels; i++)
+            active[i] = i;
+        int count = pixels;
+
+        long spent = 0;
+        int rounds = 0;
+        double noise = 0;
+
+        while (0 < count) {
+
+            int batch = rounds == 0 ? first : base;
+            round(active, count, batch, rounds == 0);
+            spent += (long)count * batch;
+            rounds++;
+
+            noise = measure();
+            if (noise <= PathTracer.adaptiveNoiseTarget)
+                break;
+
+            count = 0;
+            for (int i = 0; i < pixels; i++)
+                if (PathTracer.adaptiveThreshold < error[i])
+                    active[count++] = i;
+
+            long left = (budget - spent) / base;
+            if (left < count)
+                count = noisiest(active, count, (int)Math.max(0, left));
+        }
+
+        System.out.printf(
+            "\nAdaptive sampling took %d rounds and %.1f samples per pixel " +
+            "for a noise of %.3f.\n",
+            rounds, (double)spent / pixels, noise
+        );
+    }
+
+    /**
+     * Give some pixels more samples and show their new averages
+     */
+    private void round(final int[] active, int count, final int batch,
+            final boolean isFirst) {
+
+        pool.forEach(count, new RangePool.Range() {
+            void run(int start, int end) {
+
+                Vector3 color = ShadingState.get().sampleColor;
+                Vector3 average = new Vector3();
+
+                for (int i = start; i < end; i++) {
+                    int pixel = active[i];
+                    int x = areaX + pixel % areaWidth;
+                    int y = areaY + pixel / areaWidth;
+                    for (int s = 0; s < batch; s++) {
+                        PathTracer.samplePixel(x, y, samples[pixel], color);
+                        add(pixel, color);
+                    }
+                    average.set(red[pixel], green[pixel], blue[pixel]);
+                    if (isFirst)
+                        PathTracer.writePixel(x, y, average, samples[pixel]);
+                    else
+                        PathTracer.setPixel(x, y, average, samples[pixel]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add a sample to a pixel and update the mean and variance of its
+     * luminance
+     */
+    private void add(int pixel, Vector3 color) {
+
+        red[pixel] += color.getX();
+        green[pixel] += color.getY();
+        blue[pixel] += color.getZ();
+
+        double luminance = 0.2126 * color.getX() + 0.7152 * color.getY() +
+            0.0722 * color.getZ();
+        int n = ++samples[pixel];
+        double delta = luminance - mean[pixel];
+        mean[pixel] += delta / n;
+        m2[pixel] += delta * (luminance - mean[pixel]);
+    }
+
+    /**
+     * Work out the standard error of the mean of every pixel
+     * 
+     * @return the root mean square of the errors
+     */
+    private double measure() {
+
+        double sum = 0;
+        for (int i = 0; i < samples.length; i++) {
+            int n = samples[i];
+            double e = Math.sqrt(m2[i] / ((double)n * (n - 1)));
+            if (255 < mean[i] - CLIP_ERRORS * e)
+                e = 0;
+            error[i] = e;
+            sum += e * e;
+        }
+
+        return Math.sqrt(sum / samples.length);
+    }
+
+    /**
+     * Keep only the noisiest of some pixels, in the order of the image
+     * 
+     * @return the number kept
+     */
+    private int noisiest(int[] active, int count, int keep) {
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = active[i];
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(error[b], error[a]);
+            }
+        });
+
+        for (int i = 0; i < keep; i++)
+            active[i] = order[i];
+        Arrays.sort(active, 0, keep);
+
+        return keep;
+    }
+
+}
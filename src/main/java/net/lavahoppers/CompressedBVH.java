@@ -0,0 +1,485 @@
+package net.lavahoppers;
+
+/*
+ * CompressedBVH.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A bounding volume hierarchy with its boxes quantized to bytes.
+ * <p>
+ * Only the root box is kept at full precision. Every interior node stores
+ * the boxes of its two children as one byte per plane, measured in 255ths of
+ * its own box, and the traversal decodes them as it goes down the tree. The
+ * bytes are rounded outwards and checked against the exact decoding, so a
+ * decoded box always contains the true one and no hit is ever lost, the boxes
+ * are just a little looser.
+ * <p>
+ * A node is five ints: twelve bytes of child boxes followed by a reference to
+ * each child. A reference is the index of an interior node, or 
+ * {@code -1 - leaf} for a leaf whose triangle offset and count live in a
+ * separate table. That comes to about a quarter of the memory of a
+ * {@code LinearBVH}.
+ * 
+ * @see LinearBVH
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class CompressedBVH implements Accelerator {
+
+    /* the number of steps each plane is quantized to */
+    private static final int STEPS = 255;
+
+    /* the number of ints per node */
+    private static final int NODE_SIZE = 5;
+
+    private final int[] nodes;
+
+    /* the triangle offset and count of every leaf */
+    private final int[] leaves;
+
+    /* the index of every triangle in leaf order */
+    private final int[] triangles;
+
+    private final MeshBuffer buffer;
+
+    /* min x, y, z then max x, y, z of the root */
+    private final double[] rootBounds = new double[6];
+
+    /* the root is the only node that may itself be a leaf */
+    private final int rootReference;
+
+    private final int depth;
+
+    private int nodeCount = 0;
+    private int leafCount = 0;
+
+    /**
+     * Compress a packed hierarchy
+     * 
+     * @param source the hierarchy to compress
+     */
+    public CompressedBVH(LinearBVH source) {
+
+        int[] sourceNodes = source.nodes();
+        int interior = 0;
+        for (int i = 1; i < sourceNodes.length; i += 2)
+            if (sourceNodes[i] < 0)
+                interior++;
+
+        nodes = new int[interior * NODE_SIZE];
+        leaves = new int[(sourceNodes.length / 2 - interior) * 2];
+        triangles = source.triangles();
+        buffer = source.buffer();
+        depth = source.depth();
+
+        System.arraycopy(source.bounds(), 0, rootBounds, 0, 6);
+        rootReference = encode(source, 0, rootBounds.clone());
+    }
+
+    /**
+     * Encode a node of the source hierarchy and everything below it
+     * 
+     * @param source  the hierarchy being compressed
+     * @param node    the node of the source hierarchy
+     * @param decoded the box the node decodes to, which contains its true box
+     * @return the reference to the encoded node
+     */
+    private int encode(LinearBVH source, int node, double[] decoded) {
+
+        int[] sourceNodes = source.nodes();
+        int count = sourceNodes[node * 2 + 1];
+
+        if (0 <= count) {
+            int leaf = leafCount++;
+            leaves[leaf * 2] = sourceNodes[node * 2];
+            leaves[leaf * 2 + 1] = count;
+            return -1 - leaf;
+        }
+
+        int index = nodeCount++;
+        int[] children = { node + 1, sourceNodes[node * 2] };
+        double[] bounds = source.bounds();
+        double[][] childDecoded = new double[2][6];
+        int[] bytes = new int[12];
+
+        for (int c = 0; c < 2; c++)
+            for (int k = 0; k < 3; k++) {
+                double min = decoded[k];
+                double scale = (decoded[k + 3] - decoded[k]) / STEPS;
+                double lo = bounds[children[c] * 6 + k];
+                double hi = bounds[children[c] * 6 + k + 3];
+
+                int qLo = 0, qHi = STEPS;
+                if (0 < scale) {
+                    qLo = clamp((int)Math.floor((lo - min) / scale));
+                    qHi = clamp((int)Math.ceil((hi - min) / scale));
+                    /* step outwards until the decoding really contains
+                    the box */
+                    while (0 < qLo && lo < min + qLo * scale)
+                        qLo--;
+                    while (qHi < STEPS && min + qHi * scale < hi)
+                        qHi++;
+                }
+
+                bytes[c * 6 + k] = qLo;
+                bytes[c * 6 + k + 3] = qHi;
+                childDecoded[c][k] = 0 < scale ? min + qLo * scale : min;
+                childDecoded[c][k + 3] = 0 < scale ? min + qHi * scale : min;
+            }
+
+        for (int w = 0; w < 3; w++)
+            nodes[index * NODE_SIZE + w] = 
+                bytes[w * 4] | bytes[w * 4 + 1] << 8 | 
+                bytes[w * 4 + 2] << 16 | bytes[w * 4 + 3] << 24;
+
+        nodes[index * NODE_SIZE + 3] = encode(source, children[0], childDecoded[0]);
+        nodes[index * NODE_SIZE + 4] = encode(source, children[1], childDecoded[1]);
+
+        return index;
+    }
+
+    private static int clamp(int q) {
+        return q < 0 ? 0 : q < STEPS ? q : STEPS;
+    }
+
+    /**
+     * Find the closest triangle along a ray
+     * <p>
+     * Both children of a node are decoded and tested together, and the nearer
+     * one is visited first. Any child that starts beyond the closest hit found
+     * so far is skipped.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the unit vector of the ray's direction
+     * @param state  the traversal state of the calling thread
+     * @see LinearBVH#intersect(Vector3, Vector3, Traversal)
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        state.nodeTests++;
+        if (slabs(rootBounds, 0, ox, oy, oz, ix, iy, iz) == -1)
+            return;
+
+        if (rootReference < 0) {
+            testLeaf(-1 - rootReference, ox, oy, oz, dx, dy, dz, state);
+            return;
+        }
+
+        /* every entry is a node, the distance to it and its decoded box */
+        int[] stack = state.stack(depth + 1);
+        double[] boxes = state.distanceStack((depth + 1) * 7);
+        double[] children = state.lanes(12);
+
+        int top = 0;
+        stack[top] = rootReference;
+        boxes[0] = 0;
+        System.arraycopy(rootBounds, 0, boxes, 1, 6);
+        top++;
+
+        while (0 < top) {
+
+            top--;
+            if (state.triangle != -1 && state.distance < boxes[top * 7])
+                continue;
+
+            int node = stack[top];
+            decode(node, boxes, top * 7 + 1, children);
+
+            state.nodeTests += 2;
+            double near = slabs(children, 0, ox, oy, oz, ix, iy, iz);
+            double far = slabs(children, 6, ox, oy, oz, ix, iy, iz);
+            int nearRef = nodes[node * NODE_SIZE + 3];
+            int farRef = nodes[node * NODE_SIZE + 4];
+            int nearBox = 0, farBox = 6;
+
+            if (far != -1 && (near == -1 || far < near)) {
+                double t = near; near = far; far = t;
+                int r = nearRef; nearRef = farRef; farRef = r;
+                nearBox = 6; farBox = 0;
+            }
+
+            /* push the far child first so the near one is popped next */
+            if (far != -1) 
+                top = visit(farRef, far, children, farBox, stack, boxes, top, 
+                    ox, oy, oz, dx, dy, dz, state);
+            if (near != -1)
+                top = visit(nearRef, near, children, nearBox, stack, boxes, 
+                    top, ox, oy, oz, dx, dy, dz, state);
+        }
+
+    }
+
+    /**
+     * Test a leaf child right away or push an interior child on the stack
+     * 
+     * @return the new top of the stack
+     */
+    private int visit(int reference, double distance, double[] children, 
+            int box, int[] stack, double[] boxes, int top, double ox, 
+            double oy, double oz, double dx, double dy, double dz, 
+            Traversal state) {
+
+        if (state.triangle != -1 && state.distance < distance)
+            return top;
+
+        if (reference < 0) {
+            testLeaf(-1 - reference, ox, oy, oz, dx, dy, dz, state);
+            return top;
+        }
+
+        stack[top] = reference;
+        boxes[top * 7] = distance;
+        System.arraycopy(children, box, boxes, top * 7 + 1, 6);
+        return top + 1;
+    }
+
+    /**
+     * See if anything lies along a ray closer than some distance
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the unit vector of the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     * @see LinearBVH#occluded(Vector3, Vector3, double, Traversal)
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        state.nodeTests++;
+        double distance = slabs(rootBounds, 0, ox, oy, oz, ix, iy, iz);
+        if (distance == -1 || maxDistance < distance)
+            return false;
+
+        if (rootReference < 0)
+            return leafBlocks(-1 - rootReference, ox, oy, oz, dx, dy, dz, 
+                maxDistance, state);
+
+        int[] stack = state.stack(depth + 1);
+        double[] boxes = state.distanceStack((depth + 1) * 7);
+        double[] children = state.lanes(12);
+
+        int top = 0;
+        stack[top] = rootReference;
+        System.arraycopy(rootBounds, 0, boxes, 1, 6);
+        top++;
+
+        while (0 < top) {
+
+            top--;
+            int node = stack[top];
+            decode(node, boxes, top * 7 + 1, children);
+
+            for (int c = 0; c < 2; c++) {
+
+                state.nodeTests++;
+                distance = slabs(children, c * 6, ox, oy, oz, ix, iy, iz);
+                if (distance == -1 || maxDistance < distance)
+                    continue;
+
+                int reference = nodes[node * NODE_SIZE + 3 + c];
+                if (reference < 0) {
+                    if (leafBlocks(-1 - reference, ox, oy, oz, dx, dy, dz, 
+                            maxDistance, state))
+                        return true;
+                    continue;
+                }
+
+                stack[top] = reference;
+                System.arraycopy(children, c * 6, boxes, top * 7 + 1, 6);
+                top++;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Decode the boxes of both children of a node
+     * 
+     * @param node   the node
+     * @param parent the array holding the decoded box of the node
+     * @param at     where the box of the node starts in that array
+     * @param out    overridden with the box of the first child followed by
+     *               the box of the second
+     */
+    private void decode(int node, double[] parent, int at, double[] out) {
+
+        int base = node * NODE_SIZE;
+
+        for (int i = 0; i < 12; i++) {
+            int q = (nodes[base + (i >> 2)] >>> ((i & 3) * 8)) & 0xFF;
+            int k = i % 3;
+            double min = parent[at + k];
+            double scale = (parent[at + k + 3] - min) / STEPS;
+            out[i] = 0 < scale ? min + q * scale : min;
+        }
+    }
+
+    /**
+     * Test the triangles of a leaf and keep the closest hit
+     */
+    private void testLeaf(int leaf, double ox, double oy, double oz, 
+            double dx, double dy, double dz, Traversal state) {
+
+        int offset = leaves[leaf * 2];
+        int end = offset + leaves[leaf * 2 + 1];
+        state.triangleTests += end - offset;
+
+        for (int i = offset; i < end; i++) {
+
+            double distance = buffer.intersects(triangles[i], 
+                ox, oy, oz, dx, dy, dz, state);
+
+            if (distance == -1)
+                continue;
+
+            if (state.triangle == -1 || distance < state.distance) {
+                state.triangle = triangles[i];
+                state.distance = distance;
+                state.u = state.hitU;
+                state.v = state.hitV;
+            }
+        }
+    }
+
+    /**
+     * See if any triangle of a leaf is hit closer than some distance
+     */
+    private boolean leafBlocks(int leaf, double ox, double oy, double oz, 
+            double dx, double dy, double dz, double maxDistance, 
+            Traversal state) {
+
+        int offset = leaves[leaf * 2];
+        int end = offset + leaves[leaf * 2 + 1];
+
+        for (int i = offset; i < end; i++) {
+            state.triangleTests++;
+            double t = buffer.intersects(triangles[i], 
+                ox, oy, oz, dx, dy, dz, state);
+            if (t != -1 && t < maxDistance)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the distance to a box packed as min x, y, z followed by max x, y, z
+     * 
+     * @see AABB#intersects(Vector3, Vector3, Vector3)
+     * @return the distance to the box, -1 if it is missed
+     */
+    private static double slabs(double[] box, int b, double ox, double oy, 
+            double oz, double ix, double iy, double iz) {
+
+        double t1 = (box[b    ] - ox) * ix;
+        double t2 = (box[b + 3] - ox) * ix;
+        double t3 = (box[b + 1] - oy) * iy;
+        double t4 = (box[b + 4] - oy) * iy;
+        double t5 = (box[b + 2] - oz) * iz;
+        double t6 = (box[b + 5] - oz) * iz;
+
+        double tmin = Math.max(Math.max(Math.min(t1, t2), Math.min(t3, t4)), 
+                Math.min(t5, t6));
+        double tmax = Math.min(Math.min(Math.max(t1, t2), Math.max(t3, t4)), 
+                Math.max(t5, t6));
+
+        if ((tmax < 0) || (tmin > tmax))
+            return -1;
+
+        return tmin;
+    }
+
+    /**
+     * Quantized boxes are relative to their parents, so moving one triangle
+     * can change every byte above it. The hierarchy is built again instead.
+     * 
+     * @return false, a compressed hierarchy can not be refitted
+     */
+    public boolean refit() {
+        return false;
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through the hierarchy according
+     * to the surface area heuristic, measured on the decoded boxes
+     * 
+     * @see AABB#sahCost()
+     * @return the SAH cost of the hierarchy
+     */
+    public double sahCost() {
+
+        double rootArea = area(rootBounds, 0);
+        if (rootReference < 0)
+            return AABB.SAH_INTERSECTION_COST * leaves[1];
+
+        int[] stack = new int[depth + 1];
+        double[] boxes = new double[(depth + 1) * 6];
+        double[] children = new double[12];
+        double cost = AABB.SAH_TRAVERSAL_COST;
+
+        int top = 0;
+        stack[top] = rootReference;
+        System.arraycopy(rootBounds, 0, boxes, 0, 6);
+        top++;
+
+        while (0 < top) {
+            top--;
+            int node = stack[top];
+            decode(node, boxes, top * 6, children);
+            for (int c = 0; c < 2; c++) {
+                double ratio = area(children, c * 6) / rootArea;
+                int reference = nodes[node * NODE_SIZE + 3 + c];
+                if (reference < 0) {
+                    cost += AABB.SAH_INTERSECTION_COST * ratio * 
+                        leaves[(-1 - reference) * 2 + 1];
+                } else {
+                    cost += AABB.SAH_TRAVERSAL_COST * ratio;
+                    stack[top] = reference;
+                    System.arraycopy(children, c * 6, boxes, top * 6, 6);
+                    top++;
+                }
+            }
+        }
+
+        return cost;
+    }
+
+    private static double area(double[] b, int i) {
+        double x = b[i + 3] - b[i];
+        double y = b[i + 4] - b[i + 1];
+        double z = b[i + 5] - b[i + 2];
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Get the box around the whole hierarchy as min x, y, z followed by
+     * max x, y, z
+     * 
+     * @return a copy of the bounds of the root
+     */
+    public double[] getBounds() {
+        return rootBounds.clone();
+    }
+
+    /**
+     * Get the number of bytes the nodes and leaf table take up
+     * 
+     * @return the size of the hierarchy in bytes, not counting triangles
+     */
+    public long bytes() {
+        return 4L * nodes.length + 4L * leaves.length;
+    }
+
+}
@@ -0,0 +1,177 @@
+package net.lavahoppers;
+
+/*
+ * EnvironmentDistribution.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A probability distribution over the directions of a lat-long environment
+ * map, proportional to how bright each texel is.
+ * <p>
+ * Every texel gets the weight of its luminance times the solid angle it
+ * covers, so texels near the poles, which the map stretches out, are not
+ * picked more than the light they give. A direction is found in two steps:
+ * a row is picked from the marginal distribution of the rows, then a texel
+ * of that row from its conditional distribution, each with a binary search
+ * through a cumulative table. Inside the texel the direction is uniform
+ * over its solid angle, so the density is constant per texel and can be
+ * looked up for any direction, which multiple importance sampling needs.
+ * <p>
+ * Texels that are black can never be picked. Light from them can only be
+ * found by scattering, which is fine since there is none.
+ * 
+ * @see Scene#sampleEnvironment(double, double, Vector3)
+ * @see <a href=https://pbr-book.org/3ed-2018/Light_Transport_I_Surface_Reflection/Sampling_Light_Sources#InfiniteAreaLights>Infinite
+ *      Area Lights</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class EnvironmentDistribution {
+
+    private final int width;
+    private final int height;
+
+    /* the cumulative weight of the rows, from 0 to 1, one more than rows */
+    private final double[] rows;
+
+    /* the cumulative weight of the texels of every row, width + 1 each */
+    private final float[] columns;
+
+    /**
+     * Build the distribution of a map
+     * 
+     * @param luminance the luminance of every texel, row by row from the
+     *                  top of the map
+     * @param width     the width of the map in texels
+     * @param height    the height of the map in texels
+     */
+    public EnvironmentDistribution(float[] luminance, int width, int height) {
+
+        this.width = width;
+        this.height = height;
+
+        rows = new double[height + 1];
+        columns = new float[height * (width + 1)];
+
+        double[] row = new double[width + 1];
+        for (int y = 0; y < height; y++) {
+
+            double solidAngle = solidAngle(y);
+            for (int x = 0; x < width; x++)
+                row[x + 1] = row[x] + luminance[x + y * width] * solidAngle;
+
+            /* a black row is never picked, but keep its table valid */
+            double total = row[width];
+            for (int x = 0; x <= width; x++)
+                columns[y * (width + 1) + x] = total > 0 ?
+                    (float)(row[x] / total) : (float)x / width;
+            columns[y * (width + 1) + width] = 1;
+
+            rows[y + 1] = rows[y] + total;
+        }
+
+        /* a black map is sampled by solid angle alone, the rows covering
+        4 pi between them */
+        double total = rows[height];
+        for (int y = 1; y <= height; y++)
+            rows[y] = total > 0 ? rows[y] / total :
+                rows[y - 1] + solidAngle(y - 1) * width / (4 * Math.PI);
+        rows[height] = 1;
+    }
+
+    /**
+     * Get the solid angle covered by one texel of a row
+     */
+    private double solidAngle(int y) {
+        return 2 * Math.PI / width * (Math.cos(Math.PI * y / height) -
+            Math.cos(Math.PI * (y + 1) / height));
+    }
+
+    /**
+     * Pick a direction with a density proportional to the light of the map
+     * 
+     * @param u1           the number that picks the row
+     * @param u2           the number that picks the texel within the row
+     * @param directionOut the Vector3 to be overridden with the direction,
+     *                     normalized
+     * @return the density of the direction per unit solid angle, 0 if no
+     *         direction could be picked
+     */
+    public double sample(double u1, double u2, Vector3 directionOut) {
+
+        int y = search(rows, 0, height, u1);
+        double rowWeight = rows[y + 1] - rows[y];
+
+        int offset = y * (width + 1);
+        int x = search(columns, offset, width, u2) - offset;
+        double texelWeight = columns[offset + x + 1] - columns[offset + x];
+
+        double weight = rowWeight * texelWeight;
+        if (weight <= 0)
+            return 0;
+
+        /* reuse what is left of the numbers to place the direction within
+        the texel, uniformly in longitude and in height */
+        double fx = (u2 - columns[offset + x]) / texelWeight;
+        double fy = (u1 - rows[y]) / rowWeight;
+        fx = fx < 0 ? 0 : fx < 1 ? fx : 1;
+        fy = fy < 0 ? 0 : fy < 1 ? fy : 1;
+
+        double phi = 2 * Math.PI * (x + fx) / width;
+        double top = Math.cos(Math.PI * y / height);
+        double bottom = Math.cos(Math.PI * (y + 1) / height);
+        double cosTheta = top + (bottom - top) * fy;
+        double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+
+        directionOut.set(sinTheta * Math.cos(phi), cosTheta,
+            -sinTheta * Math.sin(phi));
+
+        return weight / solidAngle(y);
+    }
+
+    /**
+     * Get the density of a direction that falls in a texel
+     * 
+     * @param x the column of the texel
+     * @param y the row of the texel
+     * @return the density of the direction per unit solid angle
+     */
+    public double pdf(int x, int y) {
+        int offset = y * (width + 1);
+        return (rows[y + 1] - rows[y]) *
+            (columns[offset + x + 1] - columns[offset + x]) / solidAngle(y);
+    }
+
+    /**
+     * Find the entry {@code i} of a cumulative table with
+     * {@code table[i] <= u < table[i + 1]}, skipping empty entries
+     */
+    private static int search(double[] table, int offset, int count,
+            double u) {
+        int low = offset, high = offset + count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (table[middle] <= u)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    private static int search(float[] table, int offset, int count,
+            double u) {
+        int low = offset, high = offset + count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (table[middle] <= u)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+}
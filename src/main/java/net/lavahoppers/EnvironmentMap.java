@@ -0,0 +1,385 @@
+package net.lavahoppers;
+
+/*
+ * EnvironmentMap.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.awt.image.BufferedImage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The light arriving from every direction, as a lat-long map of float RGB
+ * values.
+ * <p>
+ * The image is decoded once when it is read, so looking up a direction is
+ * two inverse trigonometric functions and a read from a float array, with
+ * no branches on which way the direction points and nothing going through
+ * a color model. Longitude runs along the width of the map and the angle
+ * from straight up along its height.
+ * <p>
+ * Besides the images ImageIO reads, high dynamic range maps can be read
+ * from Radiance {@code .hdr} files, with or without run length encoding, and
+ * from {@code .pfm} files. Their values are scaled by 255 so that 1 is as
+ * bright as white in an 8 bit image, and everything brighter than that, like
+ * the sun, keeps its real brightness instead of being clipped.
+ * 
+ * @see <a href=https://www.graphics.cornell.edu/~bjw/rgbe.html>The RGBE
+ *      image format</a>
+ * @see <a href=https://www.pauldebevec.com/Research/HDR/PFM/>The PFM
+ *      image format</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class EnvironmentMap {
+
+    /* what the values of high dynamic range files are scaled by */
+    private static final float HDR_SCALE = 255;
+
+    private final int width;
+    private final int height;
+
+    /* red, green and blue of every texel, row by row from the top */
+    private final float[] rgb;
+
+    /* blend the four nearest texels instead of taking the nearest one */
+    private final boolean isBilinear;
+
+    /**
+     * Create a map from decoded values
+     * 
+     * @param rgb        red, green and blue of every texel, row by row from
+     *                   the top
+     * @param width      the width of the map in texels
+     * @param height     the height of the map in texels
+     * @param isBilinear true to blend the four nearest texels of a lookup
+     */
+    public EnvironmentMap(float[] rgb, int width, int height,
+            boolean isBilinear) {
+        this.rgb = rgb;
+        this.width = width;
+        this.height = height;
+        this.isBilinear = isBilinear;
+    }
+
+    /**
+     * Read a map from a file, picking the format by the file's extension
+     * 
+     * @param path       the path to the image
+     * @param isBilinear true to blend the four nearest texels of a lookup
+     * @return the map
+     * @throws IOException if the file can't be read or isn't a valid image
+     */
+    public static EnvironmentMap read(String path, boolean isBilinear)
+            throws IOException {
+
+        String name = path.toLowerCase();
+        if (name.endsWith(".hdr") || name.endsWith(".pic"))
+            return readRadiance(path, isBilinear);
+        if (name.endsWith(".pfm"))
+            return readPFM(path, isBilinear);
+
+        BufferedImage image = ImageIO.read(new File(path));
+        if (image == null)
+            throw new IOException("Unknown image format.");
+
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        float[] rgb = new float[3 * pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            rgb[3 * i] = (pixels[i] >> 16) & 0xFF;
+            rgb[3 * i + 1] = (pixels[i] >> 8) & 0xFF;
+            rgb[3 * i + 2] = pixels[i] & 0xFF;
+        }
+
+        return new EnvironmentMap(rgb, width, height, isBilinear);
+    }
+
+    /**
+     * Read a Radiance RGBE file
+     * <p>
+     * Every pixel is a shared exponent and three 8 bit mantissas. Scanlines
+     * are either stored flat or, as most tools write them, with each of the
+     * four bytes run length encoded separately.
+     */
+    private static EnvironmentMap readRadiance(String path,
+            boolean isBilinear) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(path)));
+        try {
+
+            if (!readLine(in).startsWith("#?"))
+                throw new IOException("Missing the #? signature.");
+
+            /* the header ends with an empty line */
+            for (String line = readLine(in); line.length() != 0;
+                    line = readLine(in))
+                if (line.startsWith("FORMAT=") &&
+                        !line.equals("FORMAT=32-bit_rle_rgbe"))
+                    throw new IOException("Only RGBE pixels are supported.");
+
+            String[] resolution = readLine(in).trim().split("\\s+");
+            if (resolution.length != 4 || !resolution[0].equals("-Y") ||
+                    !resolution[2].equals("+X"))
+                throw new IOException("Only -Y H +X W images are supported.");
+            int height = Integer.parseInt(resolution[1]);
+            int width = Integer.parseInt(resolution[3]);
+
+            float[] rgb = new float[3 * width * height];
+            byte[] scanline = new byte[4 * width];
+
+            for (int y = 0; y < height; y++) {
+                readScanline(in, scanline, width);
+                for (int x = 0; x < width; x++) {
+                    int e = scanline[4 * x + 3] & 0xFF;
+                    float f = e == 0 ? 0 : Math.scalb(HDR_SCALE, e - 136);
+                    int i = 3 * (x + y * width);
+                    rgb[i] = (scanline[4 * x] & 0xFF) * f;
+                    rgb[i + 1] = (scanline[4 * x + 1] & 0xFF) * f;
+                    rgb[i + 2] = (scanline[4 * x + 2] & 0xFF) * f;
+                }
+            }
+
+            return new EnvironmentMap(rgb, width, height, isBilinear);
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read one scanline of an RGBE file as four bytes per pixel
+     */
+    private static void readScanline(DataInputStream in, byte[] scanline,
+            int width) throws IOException {
+
+        in.readFully(scanline, 0, 4);
+
+        /* run length encoded scanlines start with 2 2 and their width */
+        boolean isEncoded = 8 <= width && width < 0x8000 &&
+            scanline[0] == 2 && scanline[1] == 2 && (scanline[2] & 0x80) == 0;
+        if (!isEncoded) {
+            in.readFully(scanline, 4, scanline.length - 4);
+            return;
+        }
+
+        if (((scanline[2] & 0xFF) << 8 | (scanline[3] & 0xFF)) != width)
+            throw new IOException("Scanline width doesn't match the image.");
+
+        /* each channel is stored on its own as runs and literal spans */
+        for (int channel = 0; channel < 4; channel++) {
+            for (int x = 0; x < width; ) {
+                int count = in.readUnsignedByte();
+                boolean isRun = 128 < count;
+                if (isRun)
+                    count -= 128;
+                if (count == 0 || width < x + count)
+                    throw new IOException("Bad run length encoding.");
+                if (isRun) {
+                    byte value = in.readByte();
+                    for (int end = x + count; x < end; x++)
+                        scanline[4 * x + channel] = value;
+                } else {
+                    for (int end = x + count; x < end; x++)
+                        scanline[4 * x + channel] = in.readByte();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a portable float map
+     * <p>
+     * The header gives {@code PF} for color or {@code Pf} for gray, the
+     * size, and a scale whose sign tells the byte order. Rows are stored
+     * from the bottom up.
+     */
+    private static EnvironmentMap readPFM(String path, boolean isBilinear)
+            throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(path)));
+        try {
+
+            String type = readToken(in);
+            if (!type.equals("PF") && !type.equals("Pf"))
+                throw new IOException("Missing the PF or Pf signature.");
+            int channels = type.equals("PF") ? 3 : 1;
+
+            int width = Integer.parseInt(readToken(in));
+            int height = Integer.parseInt(readToken(in));
+            boolean isLittleEndian = Double.parseDouble(readToken(in)) < 0;
+
+            float[] rgb = new float[3 * width * height];
+
+            for (int y = height - 1; 0 <= y; y--)
+                for (int x = 0; x < width; x++)
+                    for (int c = 0; c < channels; c++) {
+                        int bits = in.readInt();
+                        if (isLittleEndian)
+                            bits = Integer.reverseBytes(bits);
+                        float value = Float.intBitsToFloat(bits) * HDR_SCALE;
+                        int i = 3 * (x + y * width);
+                        if (channels == 3)
+                            rgb[i + c] = value;
+                        else
+                            rgb[i] = rgb[i + 1] = rgb[i + 2] = value;
+                    }
+
+            return new EnvironmentMap(rgb, width, height, isBilinear);
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a line of a header, without its newline
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c == -1)
+                throw new EOFException("The header ended too early.");
+            line.append((char)c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Read a word of a header, and the one whitespace character after it
+     */
+    private static String readToken(DataInputStream in) throws IOException {
+        StringBuilder token = new StringBuilder();
+        for (int c = in.read(); ; c = in.read()) {
+            if (c == -1)
+                throw new EOFException("The header ended too early.");
+            if (!Character.isWhitespace(c))
+                token.append((char)c);
+            else if (token.length() != 0)
+                return token.toString();
+        }
+    }
+
+    /**
+     * Look up the light coming from a direction
+     * 
+     * @param direction the direction, normalized
+     * @param colorOut  the Vector3 to be overridden with the RGB value
+     * @return {@code colorOut}
+     */
+    public Vector3 getLight(Vector3 direction, Vector3 colorOut) {
+
+        double u = longitude(direction) * width;
+        double v = Math.acos(direction.getY()) * (1 / Math.PI) * height;
+
+        if (!isBilinear) {
+            int i = 3 * texel(u, v);
+            colorOut.set(rgb[i], rgb[i + 1], rgb[i + 2]);
+            return colorOut;
+        }
+
+        /* the four texels whose centers surround the point, wrapping around
+        in longitude and clamped at the poles */
+        u -= 0.5;
+        v -= 0.5;
+        double floorU = Math.floor(u), floorV = Math.floor(v);
+        double s = u - floorU, t = v - floorV;
+
+        int x0 = ((int)floorU + width) % width;
+        int x1 = (x0 + 1) % width;
+        int y0 = Math.max((int)floorV, 0);
+        int y1 = Math.min((int)floorV + 1, height - 1);
+
+        int a = 3 * (x0 + y0 * width), b = 3 * (x1 + y0 * width);
+        int c = 3 * (x0 + y1 * width), d = 3 * (x1 + y1 * width);
+        double wa = (1 - s) * (1 - t), wb = s * (1 - t);
+        double wc = (1 - s) * t, wd = s * t;
+
+        colorOut.set(
+            wa * rgb[a] + wb * rgb[b] + wc * rgb[c] + wd * rgb[d],
+            wa * rgb[a + 1] + wb * rgb[b + 1] + wc * rgb[c + 1] +
+                wd * rgb[d + 1],
+            wa * rgb[a + 2] + wb * rgb[b + 2] + wc * rgb[c + 2] +
+                wd * rgb[d + 2]
+        );
+
+        return colorOut;
+    }
+
+    /**
+     * Find the texel a direction points at
+     * 
+     * @param direction the direction, normalized
+     * @return the index of the texel, row by row from the top
+     */
+    public int getTexel(Vector3 direction) {
+        return texel(longitude(direction) * width,
+            Math.acos(direction.getY()) * (1 / Math.PI) * height);
+    }
+
+    /**
+     * Find the texel of a point of the map given in texels
+     */
+    private int texel(double u, double v) {
+        int x = Math.min((int)u, width - 1);
+        int y = Math.min((int)v, height - 1);
+        return x + y * width;
+    }
+
+    /**
+     * Get the longitude of a direction as a fraction of a full turn, in
+     * [0, 1)
+     * <p>
+     * It is 0 along +x and goes on towards -z.
+     */
+    private static double longitude(Vector3 direction) {
+        double turns = Math.atan2(-direction.getZ(), direction.getX()) *
+            (0.5 / Math.PI);
+        return turns - Math.floor(turns);
+    }
+
+    /**
+     * Work out how bright every texel is
+     * <p>
+     * Negative values, which some float maps have, count as black.
+     * 
+     * @return the luminance of every texel, row by row from the top
+     */
+    public float[] getLuminance() {
+        float[] luminance = new float[width * height];
+        for (int i = 0; i < luminance.length; i++)
+            luminance[i] = Math.max(0, 0.2126f * rgb[3 * i] +
+                0.7152f * rgb[3 * i + 1] + 0.0722f * rgb[3 * i + 2]);
+        return luminance;
+    }
+
+    /**
+     * Get the width of the map
+     * 
+     * @return the width in texels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the map
+     * 
+     * @return the height in texels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+}
@@ -97,6 +97,44 @@ public class FastBufferedImage extends BufferedImage {
             }
     }
 
+    /**
+     * Get the root mean square difference between the caller and a reference
+     * image of the same scene, over every channel of every pixel.
+     * <p>
+     * The reference is usually the same view rendered with far more samples,
+     * so the result is how far the caller still is from converging.
+     * 
+     * @param path the path to the reference image
+     * @return the RMS error in color values of 0 to 0xFF
+     */
+    public double rmsError(String path) {
+
+        BufferedImage reference = null;
+        try {
+            reference = ImageIO.read(new File(path));
+        } catch (IOException e) {
+        }
+
+        if (reference == null || reference.getWidth() != getWidth() || 
+                reference.getHeight() != getHeight()) {
+            System.err.println("Could not compare the render with \"" + path + 
+                "\", it has to be an image of the same resolution.");
+            System.exit(1);
+        }
+
+        double sum = 0;
+        for (int y = 0; y < getHeight(); y++)
+            for (int x = 0; x < getWidth(); x++) {
+                int a = getRGB(x, y), b = reference.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int d = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    sum += d * d;
+                }
+            }
+
+        return Math.sqrt(sum / (3.0 * getWidth() * getHeight()));
+    }
+
     /**
      * Save the caller as a PNG in a directory.
      * 
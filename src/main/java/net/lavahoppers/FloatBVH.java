@@ -0,0 +1,362 @@
+package net.lavahoppers;
+
+/*
+ * FloatBVH.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A bounding volume hierarchy that keeps its boxes and triangles in single
+ * precision.
+ * <p>
+ * The nodes are laid out exactly like a {@code LinearBVH}, but every box is
+ * six floats rounded outwards, so it always contains the true box. The
+ * points of the triangles are read straight from the float position buffer
+ * of the mesh, so nothing is copied and the boxes take half the bytes.
+ * <p>
+ * The floats are widened back to doubles for the arithmetic. Java does not
+ * do float arithmetic any faster, and it leaves the rounding of the stored
+ * points as the only error. Triangles are tested with the watertight test of
+ * Woop, Benthin and Wald: the ray is sheared onto the z axis and the edges are
+ * tested in two dimensions, so two triangles sharing an edge always agree on
+ * which side of it a ray passes and no ray slips through the crack between
+ * them. Neighbouring triangles share rounded points, so rounding them moves
+ * the surface a little but never opens it up.
+ * 
+ * @see LinearBVH
+ * @see <a href=https://jcgt.org/published/0002/01/05/>Watertight
+ *      Ray/Triangle Intersection</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class FloatBVH implements Accelerator {
+
+    /* hits closer than this are the surface the ray starts on */
+    private static final double EPSILON = 0.0000001;
+
+    /* min x, y, z then max x, y, z of every node */
+    private final float[] bounds;
+
+    /* the same layout as the nodes of a LinearBVH */
+    private final int[] nodes;
+
+    /* the position and index buffers of the mesh */
+    private final float[] positions;
+    private final int[] indices;
+
+    /* the index of every triangle in leaf order */
+    private final int[] triangles;
+
+    private final int depth;
+
+    /**
+     * Round the boxes of a packed hierarchy to single precision
+     * 
+     * @param source the hierarchy to convert
+     */
+    public FloatBVH(LinearBVH source) {
+
+        double[] sourceBounds = source.bounds();
+        bounds = new float[sourceBounds.length];
+        for (int b = 0; b < bounds.length; b += 6)
+            for (int k = 0; k < 3; k++) {
+                bounds[b + k] = down(sourceBounds[b + k]);
+                bounds[b + k + 3] = up(sourceBounds[b + k + 3]);
+            }
+
+        nodes = source.nodes();
+        triangles = source.triangles();
+        depth = source.depth();
+
+        positions = source.buffer().positions();
+        indices = source.buffer().indices();
+    }
+
+    /**
+     * Round a double to the nearest float at or below it
+     */
+    private static float down(double x) {
+        float f = (float)x;
+        return f <= x ? f : Math.nextAfter(f, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Round a double to the nearest float at or above it
+     */
+    private static float up(double x) {
+        float f = (float)x;
+        return x <= f ? f : Math.nextAfter(f, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Find the closest triangle along a ray, visiting the nearer child of
+     * every node first and skipping any node that starts beyond the closest
+     * hit found so far.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+        walk(origin, ray, Double.MAX_VALUE, false, state);
+    }
+
+    /**
+     * See if anything lies along a ray closer than some distance
+     * <p>
+     * The walk stops at the first triangle it finds and the closest hit in
+     * the traversal state is untouched.
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance,
+            Traversal state) {
+        return walk(origin, ray, maxDistance, true, state);
+    }
+
+    /**
+     * Walk the hierarchy nearest child first
+     * 
+     * @param any true to stop at the first hit closer than
+     *            {@code maxDistance}, false to find the closest hit
+     * @return true if {@code any} is set and a hit was found
+     */
+    private boolean walk(Vector3 origin, Vector3 ray, double maxDistance,
+            boolean any, Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+        boolean negX = ix < 0, negY = iy < 0, negZ = iz < 0;
+
+        /* the axis the ray moves along fastest becomes z, and x and y are
+        swapped for rays heading down it to keep the winding of triangles */
+        double adx = Math.abs(dx), ady = Math.abs(dy), adz = Math.abs(dz);
+        int kz = adx > ady ? (adx > adz ? 0 : 2) : (ady > adz ? 1 : 2);
+        int kx = kz == 2 ? 0 : kz + 1;
+        int ky = kx == 2 ? 0 : kx + 1;
+        double dkz = component(kz, dx, dy, dz);
+        if (dkz < 0) {
+            int swap = kx;
+            kx = ky;
+            ky = swap;
+        }
+
+        /* the shear that takes the ray onto the z axis */
+        double sx = component(kx, dx, dy, dz) / dkz;
+        double sy = component(ky, dx, dy, dz) / dkz;
+        double sz = 1.0 / dkz;
+        double okx = component(kx, ox, oy, oz);
+        double oky = component(ky, ox, oy, oz);
+        double okz = component(kz, ox, oy, oz);
+
+        int[] stack = state.stack(depth + 1);
+        int top = 0;
+        stack[top++] = 0;
+
+        while (0 < top) {
+
+            int node = stack[--top];
+
+            state.nodeTests++;
+            double distance = slabs(node, ox, oy, oz, ix, iy, iz);
+
+            if (distance == -1)
+                continue;
+            if (any ? maxDistance < distance :
+                    state.triangle != -1 && state.distance < distance)
+                continue;
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                int axis = -1 - count;
+                boolean neg = axis == 0 ? negX : axis == 1 ? negY : negZ;
+                if (neg) {
+                    stack[top++] = node + 1;
+                    stack[top++] = nodes[node * 2];
+                } else {
+                    stack[top++] = nodes[node * 2];
+                    stack[top++] = node + 1;
+                }
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            state.triangleTests += count;
+            for (int i = offset; i < offset + count; i++) {
+
+                distance = watertight(triangles[i], okx, oky, okz, kx, ky, kz,
+                    sx, sy, sz, state);
+
+                if (distance == -1)
+                    continue;
+
+                if (any) {
+                    if (distance < maxDistance)
+                        return true;
+                } else if (state.triangle == -1 ||
+                        distance < state.distance) {
+                    state.triangle = triangles[i];
+                    state.distance = distance;
+                    state.u = state.hitU;
+                    state.v = state.hitV;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static double component(int axis, double x, double y, double z) {
+        return axis == 0 ? x : axis == 1 ? y : z;
+    }
+
+    /**
+     * Intersect a ray with a triangle in the sheared space of the ray
+     * 
+     * @param triangle the index of the triangle
+     * @param okx the origin along the axis that became x
+     * @param oky the origin along the axis that became y
+     * @param okz the origin along the axis that became z
+     * @param state the traversal state, given the barycentric weights of a
+     *              hit
+     * @return the distance along the ray to the hit, -1 if it is missed
+     */
+    private double watertight(int triangle, double okx, double oky,
+            double okz, int kx, int ky, int kz, double sx, double sy,
+            double sz, Traversal state) {
+
+        int i = triangle * 3;
+        int a = indices[i] * 3, b = indices[i + 1] * 3, c = indices[i + 2] * 3;
+
+        /* the points relative to the origin, sheared */
+        double az = positions[a + kz] - okz;
+        double bz = positions[b + kz] - okz;
+        double cz = positions[c + kz] - okz;
+        double ax = positions[a + kx] - okx - sx * az;
+        double ay = positions[a + ky] - oky - sy * az;
+        double bx = positions[b + kx] - okx - sx * bz;
+        double by = positions[b + ky] - oky - sy * bz;
+        double cx = positions[c + kx] - okx - sx * cz;
+        double cy = positions[c + ky] - oky - sy * cz;
+
+        /* which side of each edge the ray passes, zero on the edge itself */
+        double u = cx * by - cy * bx;
+        double v = ax * cy - ay * cx;
+        double w = bx * ay - by * ax;
+
+        if ((u < 0 || v < 0 || w < 0) && (0 < u || 0 < v || 0 < w))
+            return -1;
+
+        double det = u + v + w;
+        if (det == 0)
+            return -1;
+
+        double t = (u * az + v * bz + w * cz) * sz / det;
+        if (t <= EPSILON)
+            return -1;
+
+        /* u, v and w weigh the first, second and third point */
+        state.hitU = v / det;
+        state.hitV = w / det;
+        return t;
+    }
+
+    /**
+     * Get the distance to the box of a node
+     * 
+     * @return the distance to the box, -1 if it is missed
+     */
+    private double slabs(int node, double ox, double oy, double oz,
+            double ix, double iy, double iz) {
+
+        int b = node * 6;
+
+        double t1 = (bounds[b    ] - ox) * ix;
+        double t2 = (bounds[b + 3] - ox) * ix;
+        double t3 = (bounds[b + 1] - oy) * iy;
+        double t4 = (bounds[b + 4] - oy) * iy;
+        double t5 = (bounds[b + 2] - oz) * iz;
+        double t6 = (bounds[b + 5] - oz) * iz;
+
+        double tmin = Math.max(Math.max(Math.min(t1, t2), Math.min(t3, t4)),
+                Math.min(t5, t6));
+        double tmax = Math.min(Math.min(Math.max(t1, t2), Math.max(t3, t4)),
+                Math.max(t5, t6));
+
+        if ((tmax < 0) || (tmin > tmax))
+            return -1;
+
+        return tmin;
+    }
+
+    /**
+     * Get the box around the whole hierarchy as min x, y, z followed by
+     * max x, y, z
+     * 
+     * @return a copy of the bounds of the root node
+     */
+    public double[] getBounds() {
+        double[] root = new double[6];
+        for (int k = 0; k < 6; k++)
+            root[k] = bounds[k];
+        return root;
+    }
+
+    /**
+     * The rounded boxes are copies, so the hierarchy has to be converted
+     * again after the mesh moves
+     * 
+     * @return false, a single precision hierarchy can not be refitted
+     */
+    public boolean refit() {
+        return false;
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through the hierarchy according
+     * to the surface area heuristic, measured on the rounded boxes
+     * 
+     * @see AABB#sahCost()
+     * @return the SAH cost of the hierarchy
+     */
+    public double sahCost() {
+
+        double rootArea = area(0);
+        double cost = 0;
+
+        for (int node = 0; node < nodes.length / 2; node++) {
+            double areaRatio = rootArea > 0 ? area(node) / rootArea : 1;
+            int count = nodes[node * 2 + 1];
+            if (count < 0)
+                cost += AABB.SAH_TRAVERSAL_COST * areaRatio;
+            else
+                cost += AABB.SAH_INTERSECTION_COST * areaRatio * count;
+        }
+
+        return cost;
+    }
+
+    private double area(int node) {
+        double x = bounds[node * 6 + 3] - bounds[node * 6];
+        double y = bounds[node * 6 + 4] - bounds[node * 6 + 1];
+        double z = bounds[node * 6 + 5] - bounds[node * 6 + 2];
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Get the number of bytes the boxes and indices take up
+     * 
+     * @return the size of the hierarchy in bytes, not counting triangles
+     */
+    public long bytes() {
+        return 4L * bounds.length + 4L * nodes.length;
+    }
+
+}
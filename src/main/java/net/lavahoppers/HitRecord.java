@@ -0,0 +1,97 @@
+package net.lavahoppers;
+
+/*
+ * HitRecord.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * Everything known about the closest hit along a ray.
+ * <p>
+ * A record is filled in place by {@link Scene#intersect(Vector3, Vector3,
+ * HitRecord)}, so one record per bounce can be reused for every sample
+ * instead of allocating the point and normal of each hit. Besides the
+ * index of the triangle within its mesh and its distance it keeps the
+ * barycentric coordinates of the hit on it, as the intersection test found
+ * them.
+ * 
+ * @see ShadingState
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class HitRecord {
+
+    /** the distance along the ray to the hit */
+    public double distance = Double.MAX_VALUE;
+
+    /** the index of the triangle within its mesh, -1 if nothing was hit */
+    public int triangle = -1;
+
+    /** the instance the triangle belongs to */
+    public Instance instance = null;
+
+    /**
+     * the barycentric weights of the second and third point of the
+     * triangle at the hit, the first point gets {@code 1 - u - v}
+     */
+    public double u, v;
+
+    /** the point of the hit in world space */
+    public final Vector3 point = new Vector3();
+
+    /** the unit normal of the surface at the hit in world space */
+    public final Vector3 normal = new Vector3();
+
+    /**
+     * Tell if the ray hit anything
+     * 
+     * @return true if there is a hit
+     */
+    public boolean isHit() {
+        return triangle != -1;
+    }
+
+    /**
+     * Forget the hit, as for a ray that left the scene
+     */
+    public void miss() {
+        distance = Double.MAX_VALUE;
+        triangle = -1;
+        instance = null;
+    }
+
+    /**
+     * Fill in the record from the closest hit found along a ray
+     * 
+     * @param ox       the x component of the ray's origin
+     * @param oy       the y component of the ray's origin
+     * @param oz       the z component of the ray's origin
+     * @param dx       the x component of the ray's direction
+     * @param dy       the y component of the ray's direction
+     * @param dz       the z component of the ray's direction
+     * @param triangle the index of the triangle that was hit
+     * @param distance the distance along the ray to the hit
+     * @param u        the barycentric weight of the second point of the
+     *                 triangle
+     * @param v        the barycentric weight of the third point of the
+     *                 triangle
+     * @param instance the instance the triangle belongs to
+     */
+    public void set(double ox, double oy, double oz, double dx, double dy,
+            double dz, int triangle, double distance, double u, double v,
+            Instance instance) {
+
+        this.distance = distance;
+        this.triangle = triangle;
+        this.u = u;
+        this.v = v;
+        this.instance = instance;
+
+        point.set(ox + dx * distance, oy + dy * distance, oz + dz * distance);
+
+        instance.getMesh().getBuffer().setNormal(triangle, normal);
+        instance.setWorldNormal(normal);
+    }
+
+}
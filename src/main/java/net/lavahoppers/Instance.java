@@ -0,0 +1,274 @@
+package net.lavahoppers;
+
+/*
+ * Instance.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A placement of a mesh in the scene.
+ * <p>
+ * Any number of instances can point at the same {@code Mesh}, so a scene with
+ * many copies of one object only stores its triangles and its bounding volume
+ * hierarchy once. Each instance has its own affine transform from the mesh's
+ * object space to world space, and rays are moved into object space instead of
+ * moving the mesh into world space.
+ * 
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class Instance {
+
+    private final Mesh mesh;
+
+    /* the linear part of the transform and its inverse, row major */
+    private final double[] linear = new double[9];
+    private final double[] inverse = new double[9];
+    private final double tx, ty, tz;
+    private final boolean isIdentity;
+
+    /* min x, y, z then max x, y, z of the mesh in world space */
+    private final double[] bounds = new double[6];
+
+    /**
+     * Place a mesh in the scene as it is
+     * 
+     * @param mesh the mesh
+     */
+    public Instance(Mesh mesh) {
+        this(mesh, new Matrix(3, 3, 1, 0, 0, 0, 1, 0, 0, 0, 1), new Vector3());
+    }
+
+    /**
+     * Place a mesh in the scene with a transform
+     * <p>
+     * A point p of the mesh ends up at {@code transform * p + translation}.
+     * 
+     * @param mesh        the mesh
+     * @param transform   a 3x3 matrix that rotates, scales or shears the mesh
+     * @param translation where the origin of the mesh ends up
+     * @throws ArithmeticException if the transform is singular
+     */
+    public Instance(Mesh mesh, Matrix transform, Vector3 translation) 
+            throws ArithmeticException {
+
+        this.mesh = mesh;
+
+        Matrix inv = transform.inverse();
+        boolean identity = translation.dot(translation) == 0;
+        for (int m = 0; m < 3; m++)
+            for (int n = 0; n < 3; n++) {
+                linear[m * 3 + n] = transform.get(m, n);
+                inverse[m * 3 + n] = inv.get(m, n);
+                identity &= transform.get(m, n) == (m == n ? 1 : 0);
+            }
+
+        this.tx = translation.getX();
+        this.ty = translation.getY();
+        this.tz = translation.getZ();
+        this.isIdentity = identity;
+
+        updateBounds();
+    }
+
+    /**
+     * Recompute the world space box of this instance from the current bounds
+     * of its mesh
+     * <p>
+     * The world box is the box around the eight transformed corners of the
+     * mesh's box.
+     */
+    public void updateBounds() {
+
+        double[] local = mesh.getBounds();
+        bounds[0] = bounds[1] = bounds[2] = Double.MAX_VALUE;
+        bounds[3] = bounds[4] = bounds[5] = -Double.MAX_VALUE;
+        for (int corner = 0; corner < 8; corner++) {
+            double x = local[(corner & 1) == 0 ? 0 : 3];
+            double y = local[(corner & 2) == 0 ? 1 : 4];
+            double z = local[(corner & 4) == 0 ? 2 : 5];
+            for (int axis = 0; axis < 3; axis++) {
+                double w = linear[axis * 3] * x + linear[axis * 3 + 1] * y + 
+                    linear[axis * 3 + 2] * z + translation(axis);
+                bounds[axis] = Math.min(bounds[axis], w);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], w);
+            }
+        }
+    }
+
+    /**
+     * Returns the mesh this instance places
+     * 
+     * @return the mesh this instance places
+     */
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Returns the box around this instance in world space as min x, y, z
+     * followed by max x, y, z
+     * 
+     * @return the world space bounds of this instance
+     */
+    public double[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Find the closest triangle of this instance along a world space ray
+     * <p>
+     * The ray direction is moved into object space without being normalized
+     * so distances along it stay the same in both spaces. The traversal state
+     * remembers this instance if one of its triangles is the new closest hit.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the unit vector of the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+
+        double closest = state.distance;
+
+        if (isIdentity) {
+            mesh.intersect(origin, ray, state);
+        } else {
+            toObjectSpace(origin, ray, state);
+            mesh.intersect(state.objectOrigin, state.objectRay, state);
+        }
+
+        if (state.distance != closest)
+            state.instance = this;
+    }
+
+    /**
+     * Find the closest triangles of this instance along a packet of world
+     * space rays
+     * 
+     * @param packet the rays
+     * @param first  the first ray of interest
+     * @param last   the last ray of interest
+     * @param state  the traversal state of the calling thread
+     * @see #intersect(Vector3, Vector3, Traversal)
+     */
+    public void intersect(RayPacket packet, int first, int last, 
+            Traversal state) {
+
+        packet.save();
+
+        if (isIdentity) {
+            mesh.intersect(packet, first, last, state);
+        } else {
+            RayPacket local = state.objectPacket();
+            toObjectSpace(packet, local);
+            mesh.intersect(local, first, last, state);
+        }
+
+        for (int i = first; i <= last; i++)
+            if (packet.changed(i))
+                packet.instance[i] = this;
+    }
+
+    /**
+     * See if this instance blocks a world space ray before some distance
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the unit vector of the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+
+        if (isIdentity)
+            return mesh.occluded(origin, ray, maxDistance, state);
+
+        toObjectSpace(origin, ray, state);
+        return mesh.occluded(
+            state.objectOrigin, state.objectRay, maxDistance, state
+        );
+    }
+
+    /**
+     * Move an object space normal of this instance into world space
+     * <p>
+     * Normals are transformed by the transpose of the inverse so they stay
+     * perpendicular to the surface under non-uniform scaling.
+     * 
+     * @param normal the normal to move, overwritten with the unit world 
+     *               space normal
+     */
+    public void setWorldNormal(Vector3 normal) {
+
+        if (isIdentity)
+            return;
+
+        double x = normal.getX(), y = normal.getY(), z = normal.getZ();
+        normal.set(
+            inverse[0] * x + inverse[3] * y + inverse[6] * z,
+            inverse[1] * x + inverse[4] * y + inverse[7] * z,
+            inverse[2] * x + inverse[5] * y + inverse[8] * z
+        );
+        normal.setNorm();
+    }
+
+    /**
+     * Write a world space ray into the object space scratch vectors of the
+     * traversal state
+     */
+    private void toObjectSpace(Vector3 origin, Vector3 ray, Traversal state) {
+
+        double x = origin.getX() - tx;
+        double y = origin.getY() - ty;
+        double z = origin.getZ() - tz;
+
+        state.objectOrigin.set(
+            inverse[0] * x + inverse[1] * y + inverse[2] * z,
+            inverse[3] * x + inverse[4] * y + inverse[5] * z,
+            inverse[6] * x + inverse[7] * y + inverse[8] * z
+        );
+
+        x = ray.getX();
+        y = ray.getY();
+        z = ray.getZ();
+
+        state.objectRay.set(
+            inverse[0] * x + inverse[1] * y + inverse[2] * z,
+            inverse[3] * x + inverse[4] * y + inverse[5] * z,
+            inverse[6] * x + inverse[7] * y + inverse[8] * z
+        );
+    }
+
+    /**
+     * Write a packet of world space rays into an object space packet
+     */
+    private void toObjectSpace(RayPacket packet, RayPacket local) {
+
+        double x = packet.ox - tx;
+        double y = packet.oy - ty;
+        double z = packet.oz - tz;
+
+        local.size = packet.size;
+        local.ox = inverse[0] * x + inverse[1] * y + inverse[2] * z;
+        local.oy = inverse[3] * x + inverse[4] * y + inverse[5] * z;
+        local.oz = inverse[6] * x + inverse[7] * y + inverse[8] * z;
+
+        for (int i = 0; i < packet.size; i++) {
+            x = packet.dx[i];
+            y = packet.dy[i];
+            z = packet.dz[i];
+            local.dx[i] = inverse[0] * x + inverse[1] * y + inverse[2] * z;
+            local.dy[i] = inverse[3] * x + inverse[4] * y + inverse[5] * z;
+            local.dz[i] = inverse[6] * x + inverse[7] * y + inverse[8] * z;
+        }
+
+        local.prepare();
+    }
+
+    private double translation(int axis) {
+        return axis == 0 ? tx : axis == 1 ? ty : tz;
+    }
+
+}
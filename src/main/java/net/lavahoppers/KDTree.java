@@ -0,0 +1,470 @@
+package net.lavahoppers;
+
+/*
+ * KDTree.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A kd-tree over the triangles of a mesh, built with the surface area
+ * heuristic.
+ * <p>
+ * Unlike a bounding volume hierarchy a kd-tree splits space rather than the
+ * triangles, so the children of a node never overlap and a triangle that
+ * crosses a split plane is referenced by both sides. The leaves along a ray
+ * are visited strictly front to back and the walk stops at the first leaf
+ * that contains a hit, which suits dense scans where most rays hit something
+ * early.
+ * <p>
+ * Nodes are packed like {@code LinearBVH} nodes: the first child directly
+ * follows its parent, and each node keeps two ints, the index of its second
+ * child and {@code -1 - axis}, or for leaves the offset and count of its
+ * triangles. The split plane of every node lives in a separate array.
+ * 
+ * @see LinearBVH
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class KDTree implements Accelerator {
+
+    /* the number of candidate split planes tried per axis, plus one */
+    private static final int BINS = 32;
+
+    /* nodes with this many triangles or fewer are never split */
+    private static final int LEAF_SIZE = 2;
+
+    /* splits that cut off empty space are made this much cheaper */
+    private static final double EMPTY_BONUS = 0.8;
+
+    /* 
+     * second child index and -1 - split axis for interior nodes, or triangle
+     * offset and count for leaves
+     */
+    private int[] nodes;
+
+    /* the split plane of every interior node */
+    private double[] splits;
+
+    /* 
+     * the triangle indices of every leaf, crossing triangles appear more than
+     * once 
+     */
+    private int[] references;
+
+    /* min x, y, z then max x, y, z of the whole tree */
+    private final double[] rootBounds = new double[6];
+
+    /* the index of every triangle the tree was built over */
+    private final int[] triangles;
+
+    private final MeshBuffer buffer;
+
+    /* min x, y, z then max x, y, z of every triangle */
+    private final double[] boxes;
+
+    private final int maxDepth;
+
+    private int nodeCount = 0;
+    private int referenceCount = 0;
+    private int depth = 0;
+
+    /**
+     * Build a kd-tree over some triangles
+     * 
+     * @param list   the triangles
+     * @param buffer the geometry the triangles were made from
+     */
+    public KDTree(ArrayList<Triangle> list, MeshBuffer buffer) {
+
+        this.buffer = buffer;
+        int n = list.size();
+        triangles = new int[n];
+
+        boxes = new double[n * 6];
+        rootBounds[0] = rootBounds[1] = rootBounds[2] = Double.MAX_VALUE;
+        rootBounds[3] = rootBounds[4] = rootBounds[5] = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Triangle tri = list.get(i);
+            triangles[i] = tri.index;
+            for (int k = 0; k < 3; k++) {
+                double a = get(tri.a, k), b = get(tri.b, k), c = get(tri.c, k);
+                boxes[i * 6 + k] = Math.min(a, Math.min(b, c));
+                boxes[i * 6 + k + 3] = Math.max(a, Math.max(b, c));
+                rootBounds[k] = Math.min(rootBounds[k], boxes[i * 6 + k]);
+                rootBounds[k + 3] = 
+                    Math.max(rootBounds[k + 3], boxes[i * 6 + k + 3]);
+            }
+        }
+
+        maxDepth = 8 + (int)(1.3 * Math.log(Math.max(1, n)) / Math.log(2));
+        nodes = new int[Math.max(16, n * 4)];
+        splits = new double[nodes.length / 2];
+        references = new int[Math.max(16, n * 2)];
+
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++)
+            all[i] = i;
+        build(all, rootBounds.clone(), 1);
+
+        nodes = Arrays.copyOf(nodes, nodeCount * 2);
+        splits = Arrays.copyOf(splits, nodeCount);
+        references = Arrays.copyOf(references, referenceCount);
+    }
+
+    private static double get(Vector3 v, int axis) {
+        return axis == 0 ? v.getX() : axis == 1 ? v.getY() : v.getZ();
+    }
+
+    /**
+     * Build a node and everything below it
+     * 
+     * @param tris  the indices of the triangles overlapping the node
+     * @param box   the box of the node
+     * @param level the depth of the node, starting at 1
+     */
+    private void build(int[] tris, double[] box, int level) {
+
+        int node = nodeCount++;
+        if (nodes.length < nodeCount * 2) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            splits = Arrays.copyOf(splits, nodes.length / 2);
+        }
+        depth = Math.max(depth, level);
+
+        int count = tris.length;
+        double area = area(box);
+
+        int bestAxis = -1;
+        double bestPlane = 0;
+        double bestCost = AABB.SAH_INTERSECTION_COST * count;
+
+        if (LEAF_SIZE < count && level < maxDepth && 0 < area) {
+
+            int[] starts = new int[BINS];
+            int[] ends = new int[BINS];
+
+            for (int axis = 0; axis < 3; axis++) {
+
+                double min = box[axis], extent = box[axis + 3] - min;
+                if (extent <= 0)
+                    continue;
+
+                double scale = BINS / extent;
+                Arrays.fill(starts, 0);
+                Arrays.fill(ends, 0);
+                for (int t : tris) {
+                    starts[bin((boxes[t * 6 + axis] - min) * scale)]++;
+                    ends[bin((boxes[t * 6 + axis + 3] - min) * scale)]++;
+                }
+
+                /* a triangle is left of plane b if it starts in a lower bin
+                and right of it if it ends in bin b or higher */
+                int left = 0, right = count;
+                for (int b = 1; b < BINS; b++) {
+                    left += starts[b - 1];
+                    right -= ends[b - 1];
+
+                    double plane = min + b * extent / BINS;
+                    box[axis + 3] = plane;
+                    double leftArea = area(box);
+                    box[axis + 3] = min + extent;
+                    box[axis] = plane;
+                    double rightArea = area(box);
+                    box[axis] = min;
+
+                    double cost = AABB.SAH_TRAVERSAL_COST + 
+                        AABB.SAH_INTERSECTION_COST * 
+                        (leftArea * left + rightArea * right) / area;
+                    if (left == 0 || right == 0)
+                        cost *= EMPTY_BONUS;
+
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestPlane = plane;
+                    }
+                }
+            }
+        }
+
+        if (bestAxis != -1) {
+
+            /* triangles lying in the plane go to both sides */
+            int leftCount = 0, rightCount = 0;
+            for (int t : tris) {
+                double lo = boxes[t * 6 + bestAxis];
+                double hi = boxes[t * 6 + bestAxis + 3];
+                if (lo < bestPlane || hi <= bestPlane)
+                    leftCount++;
+                if (bestPlane < hi || bestPlane <= lo)
+                    rightCount++;
+            }
+
+            if (leftCount < count || rightCount < count) {
+
+                int[] left = new int[leftCount];
+                int[] right = new int[rightCount];
+                leftCount = rightCount = 0;
+                for (int t : tris) {
+                    double lo = boxes[t * 6 + bestAxis];
+                    double hi = boxes[t * 6 + bestAxis + 3];
+                    if (lo < bestPlane || hi <= bestPlane)
+                        left[leftCount++] = t;
+                    if (bestPlane < hi || bestPlane <= lo)
+                        right[rightCount++] = t;
+                }
+
+                double[] leftBox = box.clone();
+                leftBox[bestAxis + 3] = bestPlane;
+                double[] rightBox = box;
+                rightBox[bestAxis] = bestPlane;
+
+                splits[node] = bestPlane;
+                nodes[node * 2 + 1] = -1 - bestAxis;
+                build(left, leftBox, level + 1);
+                nodes[node * 2] = nodeCount;
+                build(right, rightBox, level + 1);
+                return;
+            }
+        }
+
+        if (references.length < referenceCount + count)
+            references = Arrays.copyOf(references, 
+                Math.max(references.length * 2, referenceCount + count));
+
+        nodes[node * 2] = referenceCount;
+        nodes[node * 2 + 1] = count;
+        for (int t : tris)
+            references[referenceCount++] = triangles[t];
+    }
+
+    private static int bin(double x) {
+        return x < 0 ? 0 : x < BINS ? (int)x : BINS - 1;
+    }
+
+    private static double area(double[] b) {
+        double x = b[3] - b[0];
+        double y = b[4] - b[1];
+        double z = b[5] - b[2];
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Find the closest triangle along a ray
+     * <p>
+     * The ray is clipped to the box of each node it enters. At a split it
+     * goes into the child on the side of its origin first and keeps the
+     * other child on the stack only if the ray reaches the plane inside the
+     * node. A hit is final once it lies within the leaf it was found in,
+     * because every leaf left on the stack is further along the ray.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+        walk(origin, ray, Double.MAX_VALUE, false, state);
+    }
+
+    /**
+     * See if anything lies along a ray closer than some distance
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+        return walk(origin, ray, maxDistance, true, state);
+    }
+
+    /**
+     * Visit the leaves along a ray front to back
+     * 
+     * @param maxDistance the ray ends here
+     * @param any         stop at the first hit rather than the closest
+     * @return true if a triangle closer than {@code maxDistance} was found
+     *         while looking for any hit
+     */
+    private boolean walk(Vector3 origin, Vector3 ray, double maxDistance, 
+            boolean any, Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        /* clip the ray to the root box */
+        double t1 = (rootBounds[0] - ox) * ix, t2 = (rootBounds[3] - ox) * ix;
+        double t3 = (rootBounds[1] - oy) * iy, t4 = (rootBounds[4] - oy) * iy;
+        double t5 = (rootBounds[2] - oz) * iz, t6 = (rootBounds[5] - oz) * iz;
+        double tmin = Math.max(Math.max(Math.max(Math.min(t1, t2), 
+            Math.min(t3, t4)), Math.min(t5, t6)), 0);
+        double tmax = Math.min(Math.min(Math.min(Math.max(t1, t2), 
+            Math.max(t3, t4)), Math.max(t5, t6)), maxDistance);
+
+        if (tmax < tmin)
+            return false;
+        if (!any && state.triangle != -1 && state.distance < tmin)
+            return false;
+
+        int[] stack = state.stack(depth);
+        double[] ranges = state.distanceStack(depth * 2);
+        int top = 0;
+        int node = 0;
+
+        while (true) {
+
+            state.nodeTests++;
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+
+                int axis = -1 - count;
+                double o = axis == 0 ? ox : axis == 1 ? oy : oz;
+                double d = axis == 0 ? dx : axis == 1 ? dy : dz;
+                double inv = axis == 0 ? ix : axis == 1 ? iy : iz;
+                double split = splits[node];
+
+                int near = node + 1, far = nodes[node * 2];
+                if (split < o || (o == split && 0 < d)) {
+                    near = far;
+                    far = node + 1;
+                }
+
+                double t = (split - o) * inv;
+                /* a ray lying in the plane gives NaN and stays on its side */
+                if (tmax < t || !(0 < t)) {
+                    node = near;
+                } else if (t < tmin) {
+                    node = far;
+                } else {
+                    stack[top] = far;
+                    ranges[top * 2] = t;
+                    ranges[top * 2 + 1] = tmax;
+                    top++;
+                    node = near;
+                    tmax = t;
+                }
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            state.triangleTests += count;
+            for (int i = offset; i < offset + count; i++) {
+
+                double distance = buffer.intersects(references[i], 
+                    ox, oy, oz, dx, dy, dz, state);
+
+                if (distance == -1)
+                    continue;
+
+                if (any) {
+                    if (distance < maxDistance)
+                        return true;
+                } else if (state.triangle == -1 || distance < state.distance) {
+                    state.triangle = references[i];
+                    state.distance = distance;
+                    state.u = state.hitU;
+                    state.v = state.hitV;
+                }
+            }
+
+            if (!any && state.triangle != -1 && state.distance <= tmax)
+                return false;
+
+            if (top == 0)
+                return false;
+
+            top--;
+            node = stack[top];
+            tmin = ranges[top * 2];
+            tmax = ranges[top * 2 + 1];
+
+            if (!any && state.triangle != -1 && state.distance < tmin)
+                return false;
+        }
+    }
+
+    /**
+     * Split planes are chosen for where the triangles were, so the tree is
+     * built again instead.
+     * 
+     * @return false, a kd-tree can not be refitted
+     */
+    public boolean refit() {
+        return false;
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through the tree according to
+     * the surface area heuristic
+     * 
+     * @see AABB#sahCost()
+     * @return the SAH cost of the tree
+     */
+    public double sahCost() {
+        return sahCost(0, rootBounds.clone()) / area(rootBounds);
+    }
+
+    /**
+     * Get the cost of a node and everything below it, weighted by area
+     */
+    private double sahCost(int node, double[] box) {
+
+        int count = nodes[node * 2 + 1];
+        if (0 <= count)
+            return AABB.SAH_INTERSECTION_COST * count * area(box);
+
+        int axis = -1 - count;
+        double[] right = box.clone();
+        right[axis] = splits[node];
+        double cost = AABB.SAH_TRAVERSAL_COST * area(box);
+        box[axis + 3] = splits[node];
+        return cost + sahCost(node + 1, box) + sahCost(nodes[node * 2], right);
+    }
+
+    /**
+     * Get the box around the whole tree as min x, y, z followed by
+     * max x, y, z
+     * 
+     * @return a copy of the bounds of the root
+     */
+    public double[] getBounds() {
+        return rootBounds.clone();
+    }
+
+    /**
+     * Get the number of bytes the nodes, planes and leaf references take up,
+     * counting four bytes per reference
+     * 
+     * @return the size of the tree in bytes, not counting triangles
+     */
+    public long bytes() {
+        return 4L * nodes.length + 8L * splits.length + 4L * references.length;
+    }
+
+    /**
+     * Get the number of nodes in the tree
+     * 
+     * @return the number of nodes
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Get the number of triangle references in the leaves
+     * 
+     * @return the number of references
+     */
+    public int referenceCount() {
+        return referenceCount;
+    }
+
+}
@@ -0,0 +1,666 @@
+package net.lavahoppers;
+
+/*
+ * LBVHBuilder.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A builder for linear bounding volume hierarchies.
+ * <p>
+ * Instead of searching for good split planes, the centroid of every triangle
+ * is turned into a Morton code that interleaves the bits of its x, y and z
+ * coordinates. Sorting the triangles by these codes lays them out along a
+ * space filling curve, and the tree falls out of the sorted codes: every node
+ * splits where the highest bit that differs in its range flips. This is much
+ * faster than the other builders and gives somewhat worse trees, which an
+ * optional treelet pass can mostly win back.
+ * 
+ * @see <a href=https://research.nvidia.com/publication/2012-06_maximizing-parallelism-construction-bvhs-octrees-and-k-d-trees>
+ *      Maximizing Parallelism in the Construction of BVHs</a>
+ * @see <a href=https://research.nvidia.com/publication/2013-07_fast-parallel-construction-high-quality-bounding-volume-hierarchies>
+ *      Fast Parallel Construction of High-Quality BVHs</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class LBVHBuilder {
+
+    /* ranges of at most this many triangles become leaves */
+    public static final int LEAF_SIZE = 4;
+
+    /* the number of leaves in a treelet */
+    public static final int TREELET_SIZE = 7;
+
+    /* subtrees with fewer triangles are handled on one thread */
+    private static final int PARALLEL_GRAIN = 1 << 14;
+
+    private final ForkJoinPool pool;
+    private final int threads;
+
+    private final Triangle[] triangles;
+    private final MeshBuffer buffer;
+    private final long[] keys;
+    private final int[] order;
+
+    /* 
+     * the intermediate tree, grown as nodes are emitted. Leaves have no
+     * first child and span is the number of triangles below a node 
+     */
+    private int nodeCount = 0;
+    private int[] child0 = new int[1024];
+    private int[] child1 = new int[1024];
+    private int[] leafFirst = new int[1024];
+    private int[] leafCount = new int[1024];
+    private int[] span = new int[1024];
+    private double[] box = new double[1024 * 6];
+    private double[] cost = new double[1024];
+
+    private LBVHBuilder(ArrayList<Triangle> list, MeshBuffer buffer, 
+            int threads) {
+        this.threads = Math.max(1, threads);
+        this.pool = new ForkJoinPool(this.threads);
+        this.triangles = list.toArray(new Triangle[list.size()]);
+        this.buffer = buffer;
+        this.keys = new long[triangles.length];
+        this.order = new int[triangles.length];
+    }
+
+    /**
+     * Build a linear bounding volume hierarchy over some triangles
+     * 
+     * @param list     the triangles
+     * @param buffer   the geometry the triangles were made from
+     * @param threads  the number of threads to build with
+     * @param bits     the length of the Morton codes, 30 or 63
+     * @param treelets true to run the treelet optimization pass
+     * @return the packed hierarchy
+     */
+    public static LinearBVH build(ArrayList<Triangle> list, 
+            MeshBuffer buffer, int threads, int bits, boolean treelets) {
+
+        LBVHBuilder builder = new LBVHBuilder(list, buffer, threads);
+
+        try {
+            long start = System.nanoTime();
+            builder.computeKeys(bits == 30 ? 10 : 21);
+            long coded = System.nanoTime();
+            builder.sort(bits == 30 ? 30 : 63);
+            long sorted = System.nanoTime();
+            int root = builder.emit(0, builder.triangles.length - 1);
+            long emitted = System.nanoTime();
+            if (treelets)
+                builder.pool.invoke(builder.new TreeletTask(root));
+            long optimized = System.nanoTime();
+            LinearBVH bvh = builder.layout(root);
+            long laidOut = System.nanoTime();
+
+            System.out.printf("    %d threads: morton %.1fms, sort %.1fms, " + 
+                "emit %.1fms, treelets %.1fms, layout %.1fms.\n", 
+                builder.threads, (coded - start) / 1e6, (sorted - coded) / 1e6, 
+                (emitted - sorted) / 1e6, (optimized - emitted) / 1e6, 
+                (laidOut - optimized) / 1e6);
+
+            return bvh;
+        } finally {
+            builder.pool.shutdown();
+        }
+    }
+
+    /**
+     * A piece of work done once for each of several ranges of an array
+     */
+    private abstract class Chunked extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final int chunk, start, end;
+
+        Chunked(int chunk, int start, int end) {
+            this.chunk = chunk;
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+    /**
+     * Work out the Morton code of the centroid of every triangle
+     * 
+     * @param bitsPerAxis the number of bits each axis is quantized to
+     */
+    private void computeKeys(final int bitsPerAxis) {
+
+        /* the centroid bounds, one box per chunk merged afterwards */
+        final double[] chunkBounds = new double[threads * 6];
+
+        ArrayList<Chunked> tasks = new ArrayList<Chunked>();
+        for (int c = 0; c < threads; c++)
+            tasks.add(new Chunked(c, chunkStart(c), chunkStart(c + 1)) {
+                @Override
+                protected void compute() {
+                    double[] b = chunkBounds;
+                    int o = chunk * 6;
+                    b[o] = b[o + 1] = b[o + 2] = Double.MAX_VALUE;
+                    b[o + 3] = b[o + 4] = b[o + 5] = -Double.MAX_VALUE;
+                    for (int i = start; i < end; i++)
+                        for (int axis = 0; axis < 3; axis++) {
+                            double value = centroid(triangles[i], axis);
+                            b[o + axis] = Math.min(b[o + axis], value);
+                            b[o + axis + 3] = Math.max(b[o + axis + 3], value);
+                        }
+                }
+            });
+        invokeAll(tasks);
+
+        final double[] min = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+        final double[] scale = new double[3];
+        double[] max = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (int c = 0; c < threads; c++)
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], chunkBounds[c * 6 + axis]);
+                max[axis] = Math.max(max[axis], chunkBounds[c * 6 + axis + 3]);
+            }
+
+        final double cells = (1 << bitsPerAxis) - 1;
+        for (int axis = 0; axis < 3; axis++)
+            scale[axis] = max[axis] > min[axis] ? 
+                cells / (max[axis] - min[axis]) : 0;
+
+        tasks.clear();
+        for (int c = 0; c < threads; c++)
+            tasks.add(new Chunked(c, chunkStart(c), chunkStart(c + 1)) {
+                @Override
+                protected void compute() {
+                    for (int i = start; i < end; i++) {
+                        long x = (long)((centroid(triangles[i], 0) - min[0]) * scale[0]);
+                        long y = (long)((centroid(triangles[i], 1) - min[1]) * scale[1]);
+                        long z = (long)((centroid(triangles[i], 2) - min[2]) * scale[2]);
+                        keys[i] = (spread(x) << 2) | (spread(y) << 1) | spread(z);
+                        order[i] = i;
+                    }
+                }
+            });
+        invokeAll(tasks);
+    }
+
+    /**
+     * Sort the keys and the triangle order with them using a parallel least
+     * significant digit radix sort over eight bit digits
+     * 
+     * @param bits the number of low bits of the keys in use
+     */
+    private void sort(int bits) {
+
+        final int n = keys.length;
+        final long[][] keyBuffers = { keys, new long[n] };
+        final int[][] orderBuffers = { order, new int[n] };
+        final int[] histograms = new int[threads * 256];
+        int current = 0;
+
+        for (int shift = 0; shift < bits; shift += 8) {
+
+            final int s = shift;
+            final long[] srcKeys = keyBuffers[current];
+            final int[] srcOrder = orderBuffers[current];
+            final long[] dstKeys = keyBuffers[current ^ 1];
+            final int[] dstOrder = orderBuffers[current ^ 1];
+
+            Arrays.fill(histograms, 0);
+            ArrayList<Chunked> tasks = new ArrayList<Chunked>();
+            for (int c = 0; c < threads; c++)
+                tasks.add(new Chunked(c, chunkStart(c), chunkStart(c + 1)) {
+                    @Override
+                    protected void compute() {
+                        int o = chunk * 256;
+                        for (int i = start; i < end; i++)
+                            histograms[o + (int)((srcKeys[i] >>> s) & 0xFF)]++;
+                    }
+                });
+            invokeAll(tasks);
+
+            /* nothing to do if every key has the same digit */
+            boolean isOneDigit = false;
+            for (int digit = 0; digit < 256; digit++) {
+                int total = 0;
+                for (int c = 0; c < threads; c++)
+                    total += histograms[c * 256 + digit];
+                if (total == n)
+                    isOneDigit = true;
+            }
+            if (isOneDigit)
+                continue;
+
+            /* turn the counts into where each chunk writes each digit, 
+            keeping the sort stable */
+            int offset = 0;
+            for (int digit = 0; digit < 256; digit++)
+                for (int c = 0; c < threads; c++) {
+                    int count = histograms[c * 256 + digit];
+                    histograms[c * 256 + digit] = offset;
+                    offset += count;
+                }
+
+            tasks.clear();
+            for (int c = 0; c < threads; c++)
+                tasks.add(new Chunked(c, chunkStart(c), chunkStart(c + 1)) {
+                    @Override
+                    protected void compute() {
+                        int o = chunk * 256;
+                        for (int i = start; i < end; i++) {
+                            int at = histograms[o + (int)((srcKeys[i] >>> s) & 0xFF)]++;
+                            dstKeys[at] = srcKeys[i];
+                            dstOrder[at] = srcOrder[i];
+                        }
+                    }
+                });
+            invokeAll(tasks);
+
+            current ^= 1;
+        }
+
+        if (current == 1) {
+            System.arraycopy(keyBuffers[1], 0, keys, 0, n);
+            System.arraycopy(orderBuffers[1], 0, order, 0, n);
+        }
+    }
+
+    /**
+     * Emit the node for a range of sorted triangles and everything below it
+     * <p>
+     * The range is split where the highest bit that differs between its
+     * first and last key changes, or in the middle if all its keys are equal.
+     * 
+     * @param first the first triangle of the range
+     * @param last  the last triangle of the range
+     * @return the index of the node
+     */
+    private int emit(int first, int last) {
+
+        int node = newNode();
+        span[node] = last - first + 1;
+
+        if (last - first < LEAF_SIZE) {
+            child0[node] = -1;
+            leafFirst[node] = first;
+            leafCount[node] = last - first + 1;
+            int b = node * 6;
+            box[b] = box[b + 1] = box[b + 2] = Double.MAX_VALUE;
+            box[b + 3] = box[b + 4] = box[b + 5] = -Double.MAX_VALUE;
+            for (int i = first; i <= last; i++) {
+                Triangle tri = triangles[order[i]];
+                grow(b, tri.a);
+                grow(b, tri.b);
+                grow(b, tri.c);
+            }
+            cost[node] = AABB.SAH_INTERSECTION_COST * leafCount[node] * 
+                area(node);
+            return node;
+        }
+
+        int split = findSplit(first, last);
+        int left = emit(first, split);
+        int right = emit(split + 1, last);
+        child0[node] = left;
+        child1[node] = right;
+        merge(node, left, right);
+
+        return node;
+    }
+
+    /**
+     * Find the last triangle of the lower half of a range
+     */
+    private int findSplit(int first, int last) {
+
+        long firstKey = keys[first];
+        long lastKey = keys[last];
+
+        if (firstKey == lastKey)
+            return (first + last) >>> 1;
+
+        int prefix = Long.numberOfLeadingZeros(firstKey ^ lastKey);
+
+        /* binary search for the last key that shares more than the common 
+        prefix with the first key */
+        int split = first;
+        int step = last - first;
+        do {
+            step = (step + 1) >>> 1;
+            int next = split + step;
+            if (next < last && prefix < 
+                    Long.numberOfLeadingZeros(firstKey ^ keys[next]))
+                split = next;
+        } while (1 < step);
+
+        return split;
+    }
+
+    /**
+     * Restructures small treelets bottom up with the surface area heuristic
+     * <p>
+     * Each internal node is grown into a treelet of up to 
+     * {@value LBVHBuilder#TREELET_SIZE} leaves by opening its largest
+     * descendants. Every binary tree over those leaves is then scored by
+     * dynamic programming over subsets and the cheapest one replaces the
+     * treelet. Subtrees are independent, so they run as fork join tasks.
+     */
+    private class TreeletTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int node;
+
+        TreeletTask(int node) {
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            int subsets = 1 << TREELET_SIZE;
+            optimize(node, new double[subsets], new double[subsets], 
+                new int[subsets]);
+        }
+
+        private void optimize(int n, double[] areas, double[] costs, 
+                int[] partitions) {
+
+            if (child0[n] == -1)
+                return;
+
+            /* spans are only read on the way down, before anything below
+            has been restructured */
+            if (PARALLEL_GRAIN <= span[n])
+                invokeAll(new TreeletTask(child0[n]), new TreeletTask(child1[n]));
+            else {
+                optimize(child0[n], areas, costs, partitions);
+                optimize(child1[n], areas, costs, partitions);
+            }
+
+            restructure(n, areas, costs, partitions);
+        }
+
+    }
+
+    /**
+     * Replace the treelet below a node with the cheapest tree over its leaves
+     */
+    private void restructure(int root, double[] areas, double[] costs, 
+            int[] partitions) {
+
+        int[] leaves = new int[TREELET_SIZE];
+        int[] internals = new int[TREELET_SIZE - 1];
+        int leafTotal = 0;
+        int internalTotal = 0;
+
+        internals[internalTotal++] = root;
+        leaves[leafTotal++] = child0[root];
+        leaves[leafTotal++] = child1[root];
+
+        while (leafTotal < TREELET_SIZE) {
+            int largest = -1;
+            for (int i = 0; i < leafTotal; i++)
+                if (child0[leaves[i]] != -1 && 
+                        (largest == -1 || area(leaves[largest]) < area(leaves[i])))
+                    largest = i;
+            if (largest == -1)
+                break;
+            int opened = leaves[largest];
+            internals[internalTotal++] = opened;
+            leaves[largest] = child0[opened];
+            leaves[leafTotal++] = child1[opened];
+        }
+
+        if (leafTotal < 3)
+            return;
+
+        int full = (1 << leafTotal) - 1;
+
+        for (int s = 1; s <= full; s++) {
+
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, 
+                   minZ = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, 
+                   maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+            for (int i = 0; i < leafTotal; i++)
+                if ((s & (1 << i)) != 0) {
+                    int b = leaves[i] * 6;
+                    minX = Math.min(minX, box[b]);
+                    minY = Math.min(minY, box[b + 1]);
+                    minZ = Math.min(minZ, box[b + 2]);
+                    maxX = Math.max(maxX, box[b + 3]);
+                    maxY = Math.max(maxY, box[b + 4]);
+                    maxZ = Math.max(maxZ, box[b + 5]);
+                }
+            double x = maxX - minX, y = maxY - minY, z = maxZ - minZ;
+            areas[s] = 2.0 * (x * y + y * z + z * x);
+
+            if ((s & (s - 1)) == 0) {
+                costs[s] = cost[leaves[Integer.numberOfTrailingZeros(s)]];
+                continue;
+            }
+
+            /* only partitions holding the lowest leaf, the rest are mirrors */
+            int lowest = s & -s;
+            double best = Double.MAX_VALUE;
+            int bestPartition = 0;
+            for (int p = (s - 1) & s; p != 0; p = (p - 1) & s) {
+                if ((p & lowest) == 0)
+                    continue;
+                double c = costs[p] + costs[s ^ p];
+                if (c < best) {
+                    best = c;
+                    bestPartition = p;
+                }
+            }
+            costs[s] = AABB.SAH_TRAVERSAL_COST * areas[s] + best;
+            partitions[s] = bestPartition;
+        }
+
+        if (cost[root] <= costs[full] * (1 + 1e-9))
+            return;
+
+        int[] next = { 1 };
+        rebuild(root, full, leaves, internals, next, partitions);
+    }
+
+    /**
+     * Rewire the internal nodes of a treelet to the tree the dynamic program
+     * picked
+     */
+    private void rebuild(int node, int subset, int[] leaves, int[] internals, 
+            int[] next, int[] partitions) {
+
+        int[] sides = { partitions[subset], subset ^ partitions[subset] };
+        int[] picked = new int[2];
+
+        for (int i = 0; i < 2; i++) {
+            int s = sides[i];
+            if ((s & (s - 1)) == 0) {
+                picked[i] = leaves[Integer.numberOfTrailingZeros(s)];
+            } else {
+                picked[i] = internals[next[0]++];
+                rebuild(picked[i], s, leaves, internals, next, partitions);
+            }
+        }
+
+        child0[node] = picked[0];
+        child1[node] = picked[1];
+        merge(node, picked[0], picked[1]);
+    }
+
+    /**
+     * Pack the intermediate tree into a {@code LinearBVH}
+     * <p>
+     * Nodes are written depth first with the child that has the lower center
+     * along the axis that separates the children the most written first, the
+     * same layout {@code LinearBVH} makes from an {@code AABB} tree.
+     * 
+     * @param root the root of the intermediate tree
+     * @return the packed hierarchy
+     */
+    private LinearBVH layout(int root) {
+
+        /* count the nodes below every node, children before parents */
+        int[] size = new int[nodeCount];
+        int[] stack = new int[nodeCount * 2 + 2];
+        int top = 0;
+        stack[top++] = root;
+        int[] postOrder = new int[nodeCount];
+        int visited = 0;
+        while (0 < top) {
+            int n = stack[--top];
+            postOrder[visited++] = n;
+            if (child0[n] != -1) {
+                stack[top++] = child0[n];
+                stack[top++] = child1[n];
+            }
+        }
+        for (int i = visited - 1; 0 <= i; i--) {
+            int n = postOrder[i];
+            size[n] = child0[n] == -1 ? 1 : 1 + size[child0[n]] + size[child1[n]];
+        }
+
+        double[] bounds = new double[visited * 6];
+        int[] nodes = new int[visited * 2];
+        int[] sorted = new int[triangles.length];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = triangles[order[i]].index;
+
+        int[] positions = new int[nodeCount];
+        int[] levels = new int[nodeCount];
+        int depth = 0;
+        top = 0;
+        stack[top++] = root;
+        positions[root] = 0;
+        levels[root] = 1;
+
+        while (0 < top) {
+
+            int n = stack[--top];
+            int at = positions[n];
+            depth = Math.max(depth, levels[n]);
+            System.arraycopy(box, n * 6, bounds, at * 6, 6);
+
+            if (child0[n] == -1) {
+                nodes[at * 2] = leafFirst[n];
+                nodes[at * 2 + 1] = leafCount[n];
+                continue;
+            }
+
+            int first = child0[n], second = child1[n];
+            int axis = 0;
+            double separation = 0;
+            for (int k = 0; k < 3; k++) {
+                double d = box[second * 6 + k] + box[second * 6 + k + 3] - 
+                           box[first * 6 + k] - box[first * 6 + k + 3];
+                if (Math.abs(separation) < Math.abs(d) || k == 0) {
+                    separation = d;
+                    axis = k;
+                }
+            }
+            if (separation < 0) {
+                first = child1[n];
+                second = child0[n];
+            }
+
+            positions[first] = at + 1;
+            positions[second] = at + 1 + size[first];
+            levels[first] = levels[second] = levels[n] + 1;
+            nodes[at * 2] = positions[second];
+            nodes[at * 2 + 1] = -1 - axis;
+            stack[top++] = first;
+            stack[top++] = second;
+        }
+
+        return new LinearBVH(bounds, nodes, sorted, buffer, depth);
+    }
+
+    /**
+     * Get a new node in the intermediate tree, growing it if needed
+     */
+    private int newNode() {
+        if (nodeCount == child0.length) {
+            int capacity = nodeCount * 2;
+            child0 = Arrays.copyOf(child0, capacity);
+            child1 = Arrays.copyOf(child1, capacity);
+            leafFirst = Arrays.copyOf(leafFirst, capacity);
+            leafCount = Arrays.copyOf(leafCount, capacity);
+            span = Arrays.copyOf(span, capacity);
+            box = Arrays.copyOf(box, capacity * 6);
+            cost = Arrays.copyOf(cost, capacity);
+        }
+        return nodeCount++;
+    }
+
+    /**
+     * Set the box and cost of an internal node from its two children
+     */
+    private void merge(int node, int left, int right) {
+        int b = node * 6, l = left * 6, r = right * 6;
+        for (int k = 0; k < 3; k++) {
+            box[b + k] = Math.min(box[l + k], box[r + k]);
+            box[b + k + 3] = Math.max(box[l + k + 3], box[r + k + 3]);
+        }
+        cost[node] = AABB.SAH_TRAVERSAL_COST * area(node) + cost[left] + 
+            cost[right];
+    }
+
+    private void grow(int b, Vector3 v) {
+        box[b    ] = Math.min(box[b    ], v.getX());
+        box[b + 1] = Math.min(box[b + 1], v.getY());
+        box[b + 2] = Math.min(box[b + 2], v.getZ());
+        box[b + 3] = Math.max(box[b + 3], v.getX());
+        box[b + 4] = Math.max(box[b + 4], v.getY());
+        box[b + 5] = Math.max(box[b + 5], v.getZ());
+    }
+
+    private double area(int node) {
+        int b = node * 6;
+        double x = box[b + 3] - box[b];
+        double y = box[b + 4] - box[b + 1];
+        double z = box[b + 5] - box[b + 2];
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Get where the range of a chunk starts, {@code chunkStart(threads)} is
+     * the end of the array
+     */
+    private int chunkStart(int chunk) {
+        return (int)((long)triangles.length * chunk / threads);
+    }
+
+    private void invokeAll(ArrayList<Chunked> tasks) {
+        for (Chunked task : tasks)
+            pool.execute(task);
+        for (Chunked task : tasks)
+            task.join();
+    }
+
+    /**
+     * Spread the low 21 bits of a value out so two zero bits follow each
+     */
+    private static long spread(long v) {
+        v &= 0x1FFFFFL;
+        v = (v | (v << 32)) & 0x1F00000000FFFFL;
+        v = (v | (v << 16)) & 0x1F0000FF0000FFL;
+        v = (v | (v << 8))  & 0x100F00F00F00F00FL;
+        v = (v | (v << 4))  & 0x10C30C30C30C30C3L;
+        v = (v | (v << 2))  & 0x1249249249249249L;
+        return v;
+    }
+
+    private static double centroid(Triangle tri, int axis) {
+        switch (axis) {
+            case 0:  return (tri.a.getX() + tri.b.getX() + tri.c.getX()) / 3.0;
+            case 1:  return (tri.a.getY() + tri.b.getY() + tri.c.getY()) / 3.0;
+            default: return (tri.a.getZ() + tri.b.getZ() + tri.c.getZ()) / 3.0;
+        }
+    }
+
+}
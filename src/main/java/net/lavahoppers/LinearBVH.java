@@ -0,0 +1,640 @@
+package net.lavahoppers;
+
+/*
+ * LinearBVH.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+
+/**
+ * A bounding volume hierarchy packed into primitive arrays.
+ * <p>
+ * The nodes of an {@code AABB} tree are laid out in depth first order so the
+ * first child of a node always directly follows it. Each node keeps its box as
+ * six doubles and two ints: the index of its second child and its split axis,
+ * or for leaves the offset and count of its triangles in one shared array.
+ * Walking the tree is then just index arithmetic over a fixed size stack.
+ * <p>
+ * The first child of a node is always the one with the lower center along the
+ * split axis, so a ray can pick the nearer child from the sign of its
+ * direction alone.
+ * 
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class LinearBVH implements Accelerator {
+
+    /* min x, y, z then max x, y, z of every node */
+    private final double[] bounds;
+
+    /* 
+     * second child index and -1 - split axis for interior nodes, or triangle
+     * offset and count for leaves 
+     */
+    private final int[] nodes;
+
+    /* the index of every triangle in leaf order */
+    private final int[] triangles;
+
+    private final MeshBuffer buffer;
+
+    private final int depth;
+
+    /**
+     * Flatten a built {@code AABB} tree
+     * 
+     * @param root   the root of the tree
+     * @param buffer the geometry the triangles of the tree were made from
+     */
+    public LinearBVH(AABB root, MeshBuffer buffer) {
+
+        int nodeCount = root.nodeCount();
+        bounds = new double[nodeCount * 6];
+        nodes = new int[nodeCount * 2];
+
+        ArrayList<Triangle> ordered = new ArrayList<Triangle>();
+        int[] next = new int[1];
+        depth = flatten(root, next, ordered, 1);
+
+        triangles = new int[ordered.size()];
+        for (int i = 0; i < triangles.length; i++)
+            triangles[i] = ordered.get(i).index;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Wrap arrays that are already packed the way this class packs them
+     * 
+     * @param bounds    the box of every node
+     * @param nodes     the child and triangle indices of every node
+     * @param triangles the triangle indices the leaves point into
+     * @param buffer    the geometry of the triangles
+     * @param depth     the depth of the deepest node
+     */
+    LinearBVH(double[] bounds, int[] nodes, int[] triangles, 
+            MeshBuffer buffer, int depth) {
+        this.bounds = bounds;
+        this.nodes = nodes;
+        this.triangles = triangles;
+        this.buffer = buffer;
+        this.depth = depth;
+    }
+
+    /**
+     * Write a node and everything below it into the arrays
+     * 
+     * @param node    the node to write
+     * @param next    the next free node index
+     * @param ordered the triangles of every leaf written so far
+     * @param level   the depth of the node
+     * @return the depth of the deepest node written
+     */
+    private int flatten(AABB node, int[] next, ArrayList<Triangle> ordered, 
+            int level) {
+
+        int index = next[0]++;
+
+        bounds[index * 6    ] = node.min.getX();
+        bounds[index * 6 + 1] = node.min.getY();
+        bounds[index * 6 + 2] = node.min.getZ();
+        bounds[index * 6 + 3] = node.max.getX();
+        bounds[index * 6 + 4] = node.max.getY();
+        bounds[index * 6 + 5] = node.max.getZ();
+
+        if (node.isLeafNode()) {
+            nodes[index * 2] = ordered.size();
+            nodes[index * 2 + 1] = node.leafCount();
+            ordered.addAll(node.getLeaves());
+            return level;
+        }
+
+        AABB first = node.getLeftChild();
+        AABB second = node.getRightChild();
+
+        /* split along the axis that separates the child centers the most */
+        double dx = second.min.getX() + second.max.getX() - 
+                    first.min.getX() - first.max.getX();
+        double dy = second.min.getY() + second.max.getY() - 
+                    first.min.getY() - first.max.getY();
+        double dz = second.min.getZ() + second.max.getZ() - 
+                    first.min.getZ() - first.max.getZ();
+        int axis = Math.abs(dx) >= Math.abs(dy) ? 
+            (Math.abs(dx) >= Math.abs(dz) ? 0 : 2) : 
+            (Math.abs(dy) >= Math.abs(dz) ? 1 : 2);
+        double d = axis == 0 ? dx : axis == 1 ? dy : dz;
+
+        if (d < 0) {
+            first = node.getRightChild();
+            second = node.getLeftChild();
+        }
+
+        int left = flatten(first, next, ordered, level + 1);
+        nodes[index * 2] = next[0];
+        nodes[index * 2 + 1] = -1 - axis;
+        int right = flatten(second, next, ordered, level + 1);
+
+        return Math.max(left, right);
+    }
+
+    /**
+     * Find the closest triangle along a ray
+     * <p>
+     * Only hits closer than the one already stored in the traversal state are
+     * considered, and the state is updated whenever a closer one is found.
+     * The {@code bvh-traversal} setting picks between the ordered walk and
+     * the original unordered one.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the unit vector of the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+        if (PathTracer.isOrderedTraversal)
+            intersectOrdered(origin, ray, state);
+        else
+            intersectUnordered(origin, ray, state);
+    }
+
+    /**
+     * Find the closest triangle along a ray, visiting the nearer child of
+     * every node first and skipping any node that starts beyond the closest
+     * hit found so far.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the unit vector of the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    private void intersectOrdered(Vector3 origin, Vector3 ray, 
+            Traversal state) {
+        walkOrdered(0, origin.getX(), origin.getY(), origin.getZ(), 
+            ray.getX(), ray.getY(), ray.getZ(), state);
+    }
+
+    /**
+     * Walk the part of the hierarchy below a node nearest child first
+     * 
+     * @param start the node to start at
+     * @param state the traversal state of the calling thread
+     * @see #intersectOrdered(Vector3, Vector3, Traversal)
+     */
+    private void walkOrdered(int start, double ox, double oy, double oz, 
+            double dx, double dy, double dz, Traversal state) {
+
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        /* is the ray heading down each axis, in which case the second child
+        is the nearer one */
+        boolean negX = ix < 0, negY = iy < 0, negZ = iz < 0;
+
+        int[] stack = state.stack(depth + 1);
+        int top = 0;
+        stack[top++] = start;
+
+        while (0 < top) {
+
+            int node = stack[--top];
+
+            state.nodeTests++;
+            double distance = slabs(node, ox, oy, oz, ix, iy, iz);
+
+            if (distance == -1 || 
+                    (state.triangle != -1 && state.distance < distance))
+                continue;
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                int axis = -1 - count;
+                boolean neg = axis == 0 ? negX : axis == 1 ? negY : negZ;
+                if (neg) {
+                    stack[top++] = node + 1;
+                    stack[top++] = nodes[node * 2];
+                } else {
+                    stack[top++] = nodes[node * 2];
+                    stack[top++] = node + 1;
+                }
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            state.triangleTests += count;
+            for (int i = offset; i < offset + count; i++) {
+
+                distance = buffer.intersects(triangles[i], 
+                    ox, oy, oz, dx, dy, dz, state);
+
+                if (distance == -1)
+                    continue;
+
+                if (state.triangle == -1 || distance < state.distance) {
+                    state.triangle = triangles[i];
+                    state.distance = distance;
+                    state.u = state.hitU;
+                    state.v = state.hitV;
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Find the closest triangles along a packet of rays
+     * <p>
+     * The packet walks the tree nearest child first, ordered by the direction
+     * of its first active ray, and carries along the range of rays that hit
+     * the node so the rays outside it are skipped further down. Once only
+     * {@link RayPacket#BREAKUP} rays are left in the range the rest of the
+     * subtree is walked one ray at a time.
+     * 
+     * @param packet the rays, all starting at the same origin
+     * @param first  the first ray of interest
+     * @param last   the last ray of interest
+     * @param state  the traversal state of the calling thread
+     * @see RayPacket#firstHit(double[], int, int, int, Traversal)
+     */
+    public void intersect(RayPacket packet, int first, int last, 
+            Traversal state) {
+
+        /* node, first and last active ray triples */
+        int[] stack = state.packetStack(3 * (depth + 1));
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+
+        while (0 < top) {
+
+            last = stack[--top];
+            first = stack[--top];
+            int node = stack[--top];
+
+            first = packet.firstHit(bounds, node * 6, first, last, state);
+            if (last < first)
+                continue;
+            last = packet.lastHit(bounds, node * 6, first, last, state);
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+
+                if (last - first < RayPacket.BREAKUP) {
+                    for (int i = first; i <= last; i++) {
+                        state.triangle = packet.triangle[i];
+                        state.distance = packet.distance[i];
+                        state.u = packet.u[i];
+                        state.v = packet.v[i];
+                        walkOrdered(node, packet.ox, packet.oy, packet.oz, 
+                            packet.dx[i], packet.dy[i], packet.dz[i], state);
+                        packet.triangle[i] = state.triangle;
+                        packet.distance[i] = state.distance;
+                        packet.u[i] = state.u;
+                        packet.v[i] = state.v;
+                    }
+                    continue;
+                }
+
+                int axis = -1 - count;
+                double d = axis == 0 ? packet.dx[first] : 
+                    axis == 1 ? packet.dy[first] : packet.dz[first];
+                int near = node + 1, far = nodes[node * 2];
+                if (d < 0) {
+                    near = far;
+                    far = node + 1;
+                }
+                stack[top++] = far;
+                stack[top++] = first;
+                stack[top++] = last;
+                stack[top++] = near;
+                stack[top++] = first;
+                stack[top++] = last;
+                continue;
+            }
+
+            /* the rays between the first and the last only test the
+            triangles if they reach the leaf at all */
+            int offset = nodes[node * 2];
+            for (int j = first; j <= last; j++) {
+
+                if (j != first && j != last) {
+                    state.nodeTests++;
+                    if (!packet.hits(bounds, node * 6, j))
+                        continue;
+                }
+
+                state.triangleTests += count;
+                double dx = packet.dx[j], dy = packet.dy[j], dz = packet.dz[j];
+                for (int i = offset; i < offset + count; i++) {
+
+                    double distance = buffer.intersects(triangles[i], 
+                        packet.ox, packet.oy, packet.oz, dx, dy, dz, state);
+
+                    if (distance == -1)
+                        continue;
+
+                    if (packet.triangle[j] == -1 || 
+                            distance < packet.distance[j]) {
+                        packet.triangle[j] = triangles[i];
+                        packet.distance[j] = distance;
+                        packet.u[j] = state.hitU;
+                        packet.v[j] = state.hitV;
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Find the closest triangle along a ray, always visiting the first child
+     * of a node first
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the unit vector of the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    private void intersectUnordered(Vector3 origin, Vector3 ray, 
+            Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        int[] stack = state.stack(depth + 1);
+        int top = 0;
+        stack[top++] = 0;
+
+        while (0 < top) {
+
+            int node = stack[--top];
+
+            state.nodeTests++;
+            double distance = slabs(node, ox, oy, oz, ix, iy, iz);
+
+            if (distance == -1)
+                continue;
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                if (state.triangle == -1 || distance < state.distance) {
+                    stack[top++] = nodes[node * 2];
+                    stack[top++] = node + 1;
+                }
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            state.triangleTests += count;
+            for (int i = offset; i < offset + count; i++) {
+
+                distance = buffer.intersects(triangles[i], 
+                    ox, oy, oz, dx, dy, dz, state);
+
+                if (distance == -1)
+                    continue;
+
+                if (state.triangle == -1 || distance < state.distance) {
+                    state.triangle = triangles[i];
+                    state.distance = distance;
+                    state.u = state.hitU;
+                    state.v = state.hitV;
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * See if anything lies along a ray closer than some distance
+     * <p>
+     * The walk stops at the first triangle it finds, so no closest hit is
+     * searched for and the closest hit in the traversal state is untouched.
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the unit vector of the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        int[] stack = state.stack(depth + 1);
+        int top = 0;
+        stack[top++] = 0;
+
+        while (0 < top) {
+
+            int node = stack[--top];
+
+            state.nodeTests++;
+            double distance = slabs(node, ox, oy, oz, ix, iy, iz);
+
+            if (distance == -1 || maxDistance < distance)
+                continue;
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                stack[top++] = nodes[node * 2];
+                stack[top++] = node + 1;
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            for (int i = offset; i < offset + count; i++) {
+                state.triangleTests++;
+                distance = buffer.intersects(triangles[i], 
+                    ox, oy, oz, dx, dy, dz, state);
+                if (distance != -1 && distance < maxDistance)
+                    return true;
+            }
+
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the distance to the box of a node
+     * 
+     * @see AABB#intersects(Vector3, Vector3, Vector3)
+     * @return the distance to the box, -1 if it is missed
+     */
+    private double slabs(int node, double ox, double oy, double oz, 
+            double ix, double iy, double iz) {
+
+        int b = node * 6;
+
+        double t1 = (bounds[b    ] - ox) * ix;
+        double t2 = (bounds[b + 3] - ox) * ix;
+        double t3 = (bounds[b + 1] - oy) * iy;
+        double t4 = (bounds[b + 4] - oy) * iy;
+        double t5 = (bounds[b + 2] - oz) * iz;
+        double t6 = (bounds[b + 5] - oz) * iz;
+
+        double tmin = Math.max(Math.max(Math.min(t1, t2), Math.min(t3, t4)), 
+                Math.min(t5, t6));
+        double tmax = Math.min(Math.min(Math.max(t1, t2), Math.max(t3, t4)), 
+                Math.max(t5, t6));
+
+        if ((tmax < 0) || (tmin > tmax))
+            return -1;
+
+        return tmin;
+    }
+
+    /**
+     * Get the box around the whole hierarchy as min x, y, z followed by
+     * max x, y, z
+     * 
+     * @return a copy of the bounds of the root node
+     */
+    public double[] getBounds() {
+        double[] root = new double[6];
+        System.arraycopy(bounds, 0, root, 0, 6);
+        return root;
+    }
+
+    /**
+     * Recompute every box bottom up from the current positions of the
+     * triangles, keeping the shape of the tree
+     * <p>
+     * Children are always stored after their parent, so walking the nodes
+     * backwards visits every child before its parent.
+     * 
+     * @return true, a packed hierarchy can always be refitted
+     */
+    public boolean refit() {
+
+        for (int node = nodeCount() - 1; 0 <= node; node--) {
+
+            int b = node * 6;
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                int first = (node + 1) * 6;
+                int second = nodes[node * 2] * 6;
+                for (int k = 0; k < 3; k++) {
+                    bounds[b + k] = Math.min(bounds[first + k], bounds[second + k]);
+                    bounds[b + k + 3] = 
+                        Math.max(bounds[first + k + 3], bounds[second + k + 3]);
+                }
+                continue;
+            }
+
+            bounds[b] = bounds[b + 1] = bounds[b + 2] = Double.MAX_VALUE;
+            bounds[b + 3] = bounds[b + 4] = bounds[b + 5] = -Double.MAX_VALUE;
+            int offset = nodes[node * 2];
+            for (int i = offset; i < offset + count; i++)
+                for (int corner = 0; corner < 3; corner++)
+                    grow(b, triangles[i], corner);
+        }
+
+        return true;
+    }
+
+    private void grow(int b, int triangle, int corner) {
+        for (int k = 0; k < 3; k++) {
+            double v = buffer.coordinate(triangle, corner, k);
+            bounds[b + k] = Math.min(bounds[b + k], v);
+            bounds[b + k + 3] = Math.max(bounds[b + k + 3], v);
+        }
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through the hierarchy according
+     * to the surface area heuristic
+     * 
+     * @see AABB#sahCost()
+     * @return the SAH cost of the hierarchy
+     */
+    public double sahCost() {
+
+        double rootArea = area(0);
+        double cost = 0;
+
+        for (int node = 0; node < nodeCount(); node++) {
+            double areaRatio = rootArea > 0 ? area(node) / rootArea : 1;
+            int count = nodes[node * 2 + 1];
+            if (count < 0)
+                cost += AABB.SAH_TRAVERSAL_COST * areaRatio;
+            else
+                cost += AABB.SAH_INTERSECTION_COST * areaRatio * count;
+        }
+
+        return cost;
+    }
+
+    /**
+     * Get the surface area of the box of a node
+     */
+    private double area(int node) {
+        double x = bounds[node * 6 + 3] - bounds[node * 6];
+        double y = bounds[node * 6 + 4] - bounds[node * 6 + 1];
+        double z = bounds[node * 6 + 5] - bounds[node * 6 + 2];
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Get the number of nodes in the hierarchy
+     * 
+     * @return the number of nodes
+     */
+    public int nodeCount() {
+        return nodes.length / 2;
+    }
+
+    /**
+     * Get the number of bytes the boxes and indices take up
+     * 
+     * @return the size of the hierarchy in bytes, not counting triangles
+     */
+    public long bytes() {
+        return 8L * bounds.length + 4L * nodes.length;
+    }
+
+    /**
+     * Get the packed boxes, min x, y, z then max x, y, z of every node
+     */
+    double[] bounds() {
+        return bounds;
+    }
+
+    /**
+     * Get the packed child and triangle indices of every node
+     */
+    int[] nodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the indices of the triangles the leaves point into
+     */
+    int[] triangles() {
+        return triangles;
+    }
+
+    /**
+     * Get the geometry of the triangles
+     */
+    MeshBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Get the depth of the deepest node
+     */
+    int depth() {
+        return depth;
+    }
+
+}
@@ -190,6 +190,38 @@ public class Matrix {
         return out;
     }
 
+    /**
+     * Get the inverse of a 3x3 matrix
+     * 
+     * @return the inverse of the caller
+     * @throws Matrix.DimException if the caller is not 3x3
+     * @throws ArithmeticException if the caller is singular
+     * @since 1.0.1
+     */
+    public Matrix inverse() throws Matrix.DimException, ArithmeticException {
+
+        if (this.M != 3 || this.N != 3)
+            throw new DimException();
+
+        double a = get(0, 0), b = get(0, 1), c = get(0, 2);
+        double d = get(1, 0), e = get(1, 1), f = get(1, 2);
+        double g = get(2, 0), h = get(2, 1), i = get(2, 2);
+
+        double det = a * (e * i - f * h) - b * (d * i - f * g) + 
+                     c * (d * h - e * g);
+
+        if (det == 0)
+            throw new ArithmeticException("The matrix is singular.");
+
+        double s = 1.0 / det;
+
+        return new Matrix(3, 3,
+            (e * i - f * h) * s, (c * h - b * i) * s, (b * f - c * e) * s,
+            (f * g - d * i) * s, (a * i - c * g) * s, (c * d - a * f) * s,
+            (d * h - e * g) * s, (b * g - a * h) * s, (a * e - b * d) * s
+        );
+    }
+
     @Override
     public String toString() {
         String out = "";
@@ -11,53 +11,279 @@ import java.util.ArrayList;
 /**
  * Class for representing 3D objects as a mesh
  * <p>
- * Meshes can be created by directly adding triangles and verticies in code, or
- * they can be created by reading information from an obj file
+ * Meshes can be created by directly filling a position and an index buffer in
+ * code, or they can be created by reading information from an obj file
  * 
  * @version 1.0.1
  * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
  */
 class Mesh {
 
-    private final AABB root = new AABB();
-    private final ArrayList<Vector3> verticies;
-    private final ArrayList<Triangle> triangles;
+    private Accelerator accelerator;
+    private double builtCost;
+    private final MeshBuffer buffer;
 
     /**
      * Creates a new mesh!
+     * <p>
+     * The structure used to find the triangles a ray hits is picked by the
+     * {@code accelerator} setting: {@code "bvh"}, {@code "kdtree"} or 
+     * {@code "grid"}.
+     * <p>
+     * A bounding volume hierarchy is built with the builder named by the
+     * {@code bvh-builder} setting, either {@code "midpoint"}, {@code "sah"},
+     * {@code "sbvh"} or {@code "lbvh"}. All but {@code "sbvh"} run on as many
+     * threads as the {@code bvh-build-threads} setting asks for.
+     * It is then packed into a binary or a four wide hierarchy depending on
+     * the {@code bvh-width} setting. Binary hierarchies have their boxes
+     * quantized to bytes when the {@code bvh-compression} setting is on, or
+     * else have their boxes stored in single precision when the
+     * {@code geometry-precision} setting is {@code "float"}.
+     * <p>
+     * Whatever is built keeps only the indices of triangles and tests them
+     * through the buffer.
+     * 
+     * @param buffer the positions and triangle indices of the mesh
+     */
+    public Mesh(MeshBuffer buffer) {
+        this.buffer = buffer;
+        build();
+    }
+
+    /**
+     * Build the acceleration structure from scratch
+     * <p>
+     * The builders get a triangle object for every triangle of the buffer,
+     * which are dropped again once the structure is built.
+     */
+    private void build() {
+
+        long start = System.nanoTime();
+
+        ArrayList<Triangle> triangles = buffer.triangles();
+
+        if ("kdtree".equals(PathTracer.accelerator)) {
+            KDTree tree = new KDTree(triangles, buffer);
+            accelerator = tree;
+            System.out.printf("Built kd-tree over %d triangles: %d nodes, " + 
+                "%d references, SAH cost %.2f, %d bytes, %.1fms.\n", 
+                triangles.size(), tree.nodeCount(), tree.referenceCount(), 
+                tree.sahCost(), tree.bytes(), (System.nanoTime() - start) / 1e6);
+        } else if ("grid".equals(PathTracer.accelerator)) {
+            UniformGrid grid = new UniformGrid(triangles, buffer);
+            accelerator = grid;
+            System.out.printf("Built grid over %d triangles: %d cells, " + 
+                "%d references, SAH cost %.2f, %d bytes, %.1fms.\n", 
+                triangles.size(), grid.cellCount(), grid.referenceCount(), 
+                grid.sahCost(), grid.bytes(), (System.nanoTime() - start) / 1e6);
+        } else {
+            accelerator = buildBVH(triangles);
+        }
+
+        builtCost = accelerator.sahCost();
+    }
+
+    /**
+     * Build the bounding volume hierarchy the settings ask for
+     * 
+     * @param triangles the triangles of the buffer
+     * @return the packed hierarchy
+     */
+    private Accelerator buildBVH(ArrayList<Triangle> triangles) {
+
+        int threads = PathTracer.bvhBuildThreads;
+
+        /* the linear builder packs its tree itself and is always binary */
+        if ("lbvh".equals(PathTracer.bvhBuilder)) {
+            LinearBVH bvh = LBVHBuilder.build(triangles, buffer, threads, 
+                PathTracer.lbvhMortonBits, PathTracer.isLBVHTreelets);
+            System.out.printf("Built lbvh BVH over %d triangles: %d nodes, " + 
+                "SAH cost %.2f.\n", triangles.size(), bvh.nodeCount(), 
+                bvh.sahCost());
+            return compress(bvh);
+        }
+
+        boolean sah = "sah".equals(PathTracer.bvhBuilder);
+
+        long start = System.nanoTime();
+
+        AABB root = new AABB();
+        if (!"sbvh".equals(PathTracer.bvhBuilder))
+            root.add(triangles);
+
+        long bounded = System.nanoTime();
+
+        if ("sbvh".equals(PathTracer.bvhBuilder))
+            root = SBVHBuilder.build(triangles, 
+                PathTracer.sbvhDuplicationLimit);
+        else if (1 < threads)
+            root.buildParallel(sah, threads);
+        else if (sah)
+            root.buildSAH();
+        else
+            root.buildBVH();
+
+        long built = System.nanoTime();
+
+        Accelerator packed;
+        if (PathTracer.bvhWidth == WideBVH.WIDTH)
+            packed = new WideBVH(root, buffer);
+        else
+            packed = new LinearBVH(root, buffer);
+
+        long flattened = System.nanoTime();
+
+        System.out.printf("Built %s BVH over %d triangles: %d nodes, " + 
+            "%d references, SAH cost %.2f.\n", PathTracer.bvhBuilder, 
+            triangles.size(), root.nodeCount(), root.referenceCount(), 
+            root.sahCost());
+        System.out.printf("    %d threads: bounds %.1fms, build %.1fms, " + 
+            "flatten %.1fms.\n", Math.max(1, threads), 
+            (bounded - start) / 1e6, (built - bounded) / 1e6, 
+            (flattened - built) / 1e6);
+
+        if (packed instanceof LinearBVH)
+            return compress((LinearBVH)packed);
+        return packed;
+    }
+
+    /**
+     * Quantize a binary hierarchy if the {@code bvh-compression} setting
+     * asks for it, or round it to single precision if the 
+     * {@code geometry-precision} setting does
+     * 
+     * @param bvh the full precision hierarchy
+     * @return the compressed hierarchy, or {@code bvh} if neither is asked
+     *         for
+     */
+    private Accelerator compress(LinearBVH bvh) {
+
+        if (!PathTracer.isBVHCompressed && PathTracer.isSinglePrecision) {
+            FloatBVH rounded = new FloatBVH(bvh);
+            System.out.printf("    Rounded BVH to single precision, from " + 
+                "%d to %d bytes with triangles, SAH cost %.2f to %.2f.\n", 
+                bvh.bytes() + buffer.bytes(), rounded.bytes() + buffer.bytes(), 
+                bvh.sahCost(), rounded.sahCost());
+            return rounded;
+        }
+
+        if (!PathTracer.isBVHCompressed)
+            return bvh;
+
+        CompressedBVH compressed = new CompressedBVH(bvh);
+        System.out.printf("    Compressed BVH from %d to %d bytes, " + 
+            "SAH cost %.2f to %.2f.\n", bvh.bytes(), compressed.bytes(), 
+            bvh.sahCost(), compressed.sahCost());
+        return compressed;
+    }
+
+    /**
+     * Update the acceleration structure after verticies have been moved
+     * <p>
+     * The edges of the triangles are worked out again first. For bounding
+     * volume hierarchies every box is then recomputed bottom up from
+     * the buffer while the shape of the tree stays the same, which costs far
+     * less than a rebuild. Refitted trees get worse as the
+     * mesh deforms, so once the SAH cost has grown past the 
+     * {@code bvh-rebuild-threshold} setting times the cost the tree was built
+     * with, the tree is rebuilt instead.
+     * <p>
+     * Structures that can not be refitted, like compressed hierarchies,
+     * kd-trees and grids, are always rebuilt.
+     * <p>
+     * Instances of the mesh only see the new bounds once the scene is built
+     * again.
+     * 
+     * @see Scene#build()
+     * @return true if the structure was rebuilt, false if it was only
+     *         refitted
+     */
+    public boolean refit() {
+
+        buffer.updateEdges();
+
+        if (accelerator.refit() && 
+                sahCost() <= builtCost * PathTracer.bvhRebuildThreshold)
+            return false;
+
+        build();
+        return true;
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through this mesh according to
+     * the surface area heuristic
+     * 
+     * @return the SAH cost of the acceleration structure
+     */
+    public double sahCost() {
+        return accelerator.sahCost();
+    }
+
+    /**
+     * Find the closest triangle of this mesh along a ray
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the ray's direction
+     * @param state  the traversal state of the calling thread
+     * @see Accelerator#intersect(Vector3, Vector3, Traversal)
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+        accelerator.intersect(origin, ray, state);
+    }
+
+    /**
+     * Find the closest triangles of this mesh along a packet of rays
+     * <p>
+     * Only a binary hierarchy walks the rays as a packet, and only when they
+     * all head the same way. Anything else traces them one at a time.
+     * 
+     * @param packet the rays
+     * @param first  the first ray of interest
+     * @param last   the last ray of interest
+     * @param state  the traversal state of the calling thread
+     * @see LinearBVH#intersect(RayPacket, int, int, Traversal)
      */
-    public Mesh(ArrayList<Vector3> verticies, ArrayList<Triangle> triangles) {
-        this.verticies = verticies;
-        this.triangles = triangles;
-        root.add(triangles);
-        root.buildBVH();
+    public void intersect(RayPacket packet, int first, int last, 
+            Traversal state) {
+        if (accelerator instanceof LinearBVH && packet.isCoherent())
+            ((LinearBVH)accelerator).intersect(packet, first, last, state);
+        else
+            packet.intersectEach(accelerator, first, last, state);
     }
 
     /**
-     * Returns the root of this mesh
+     * See if this mesh blocks a ray before some distance
      * 
-     * @return the root of this mesh
+     * @param origin      the origin of the ray
+     * @param ray         the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     * @see Accelerator#occluded(Vector3, Vector3, double, Traversal)
      */
-    public AABB getRoot() {
-        return root;
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+        return accelerator.occluded(origin, ray, maxDistance, state);
     }
 
     /**
-     * Returns the verticies in this mesh
+     * Returns the box around this mesh as min x, y, z followed by
+     * max x, y, z
      * 
-     * @return the verticies in this mesh
+     * @return the bounds of this mesh
      */
-    public ArrayList<Vector3> getVerticies() {
-        return verticies;
+    public double[] getBounds() {
+        return accelerator.getBounds();
     }
 
     /**
-     * Returns the triangles in this mesh
+     * Returns the positions and triangle indices of this mesh
      * 
-     * @return the triangles in this mesh
+     * @return the buffer of this mesh
      */
-    public ArrayList<Triangle> getTriangles() {
-        return triangles;
+    public MeshBuffer getBuffer() {
+        return buffer;
     }
 
 }
\ No newline at end of file
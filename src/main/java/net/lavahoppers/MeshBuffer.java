@@ -0,0 +1,266 @@
+package net.lavahoppers;
+
+/*
+ * MeshBuffer.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+
+/**
+ * The geometry of a mesh packed into two flat arrays.
+ * <p>
+ * Every vertex is three floats in a position buffer and every triangle is
+ * the indices of its three vertices in an index buffer, so a triangle costs
+ * twelve bytes of indices plus its share of the vertices it uses, instead of
+ * an object with three references to vertex objects of its own. Acceleration
+ * structures refer to triangles by their index and test them through this
+ * buffer.
+ * <p>
+ * The two edges leaving the first point of every triangle are kept in a
+ * third float array, another 24 bytes per triangle, so the intersection
+ * test reads them instead of working them out on every call. They have to
+ * be brought up to date with {@link #updateEdges()} after verticies move.
+ * <p>
+ * The builders still work on {@code Triangle} objects. Those are made from
+ * the buffer by {@link #triangles()} for the length of a build and thrown
+ * away afterwards.
+ * 
+ * @see Mesh
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class MeshBuffer {
+
+    /* x, y, z of every vertex */
+    private final float[] positions;
+
+    /* the first, second and third vertex of every triangle */
+    private final int[] indices;
+
+    /* x, y, z of the first then the second edge of every triangle */
+    private final float[] edges;
+
+    /**
+     * Wrap a position and an index buffer
+     * 
+     * @param positions x, y, z of every vertex
+     * @param indices   the indices of the three verticies of every triangle
+     */
+    public MeshBuffer(float[] positions, int[] indices) {
+        this.positions = positions;
+        this.indices = indices;
+        this.edges = new float[indices.length * 2];
+        updateEdges();
+    }
+
+    /**
+     * Work out the edges of every triangle again from the positions
+     * 
+     * @see Mesh#refit()
+     */
+    public void updateEdges() {
+        for (int t = 0; t < indices.length / 3; t++) {
+            int a = indices[t * 3] * 3;
+            int b = indices[t * 3 + 1] * 3;
+            int c = indices[t * 3 + 2] * 3;
+            for (int k = 0; k < 3; k++) {
+                edges[t * 6 + k] = positions[b + k] - positions[a + k];
+                edges[t * 6 + 3 + k] = positions[c + k] - positions[a + k];
+            }
+        }
+    }
+
+    /**
+     * Get the number of verticies
+     * 
+     * @return the number of verticies
+     */
+    public int vertexCount() {
+        return positions.length / 3;
+    }
+
+    /**
+     * Get the number of triangles
+     * 
+     * @return the number of triangles
+     */
+    public int triangleCount() {
+        return indices.length / 3;
+    }
+
+    /**
+     * Copy a vertex into a vector
+     * 
+     * @param vertex the index of the vertex
+     * @param out    the vector to be overridden with the vertex
+     */
+    public void getVertex(int vertex, Vector3 out) {
+        out.set(positions[vertex * 3], positions[vertex * 3 + 1],
+            positions[vertex * 3 + 2]);
+    }
+
+    /**
+     * Move a vertex
+     * <p>
+     * The mesh has to be refitted before the move shows up in renders,
+     * which also updates the edges of the triangles.
+     * 
+     * @see Mesh#refit()
+     * @param vertex the index of the vertex
+     * @param x      the new x position
+     * @param y      the new y position
+     * @param z      the new z position
+     */
+    public void setVertex(int vertex, double x, double y, double z) {
+        positions[vertex * 3] = (float)x;
+        positions[vertex * 3 + 1] = (float)y;
+        positions[vertex * 3 + 2] = (float)z;
+    }
+
+    /**
+     * Get one coordinate of one point of a triangle
+     * 
+     * @param triangle the index of the triangle
+     * @param corner   the point of the triangle, 0, 1 or 2
+     * @param axis     the axis, 0, 1 or 2 for x, y or z
+     * @return the coordinate
+     */
+    public double coordinate(int triangle, int corner, int axis) {
+        return positions[indices[triangle * 3 + corner] * 3 + axis];
+    }
+
+    /**
+     * Make a triangle object for every triangle, for the builders
+     * <p>
+     * Triangles that share a vertex share its vector. Each triangle knows
+     * its own index, which is what the built structure keeps.
+     * 
+     * @return the triangles in index order
+     */
+    public ArrayList<Triangle> triangles() {
+
+        Vector3[] verticies = new Vector3[vertexCount()];
+        for (int v = 0; v < verticies.length; v++) {
+            verticies[v] = new Vector3();
+            getVertex(v, verticies[v]);
+        }
+
+        ArrayList<Triangle> triangles =
+            new ArrayList<Triangle>(triangleCount());
+        for (int t = 0; t < triangleCount(); t++) {
+            Triangle tri = new Triangle(verticies[indices[t * 3]],
+                verticies[indices[t * 3 + 1]], verticies[indices[t * 3 + 2]]);
+            tri.index = t;
+            triangles.add(tri);
+        }
+
+        return triangles;
+    }
+
+    /**
+     * Detects if a ray intersects with a triangle of the mesh.
+     * <p>
+     * This is the test of Möller and Trumbore on the first point of the
+     * triangle and its two stored edges.
+     * 
+     * @see <a href=https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm>Möller–Trumbore
+     *      intersection algorithm</a>
+     * 
+     * @param triangle the index of the triangle
+     * @param ox       the x component of the ray's origin
+     * @param oy       the y component of the ray's origin
+     * @param oz       the z component of the ray's origin
+     * @param dx       the x component of the ray's direction
+     * @param dy       the y component of the ray's direction
+     * @param dz       the z component of the ray's direction
+     * @param state    the traversal state of the calling thread, whose
+     *                 {@code hitU} and {@code hitV} are overridden with the
+     *                 barycentric weights of a hit
+     * @return the distance along the ray to the intersection, -1 if there is
+     *         no intersection
+     */
+    public double intersects(int triangle, double ox, double oy, double oz,
+            double dx, double dy, double dz, Traversal state) {
+
+        double epsilon = 0.0000001;
+
+        int a = indices[triangle * 3] * 3, e = triangle * 6;
+
+        double ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+        double e1x = edges[e], e1y = edges[e + 1], e1z = edges[e + 2];
+        double e2x = edges[e + 3], e2y = edges[e + 4], e2z = edges[e + 5];
+
+        /* h = ray x edge2 */
+        double hx = dy * e2z - dz * e2y;
+        double hy = dz * e2x - dx * e2z;
+        double hz = dx * e2y - dy * e2x;
+        double det = e1x * hx + e1y * hy + e1z * hz;
+
+        double f = 1.0 / det;
+        double sx = ox - ax;
+        double sy = oy - ay;
+        double sz = oz - az;
+        double u = f * (sx * hx + sy * hy + sz * hz);
+        if (u < 0 || 1 < u)
+            return -1;
+
+        /* q = s x edge1 */
+        double qx = sy * e1z - sz * e1y;
+        double qy = sz * e1x - sx * e1z;
+        double qz = sx * e1y - sy * e1x;
+        double v = f * (dx * qx + dy * qy + dz * qz);
+        if (v < 0 || 1 < u + v)
+            return -1;
+
+        double t = f * (e2x * qx + e2y * qy + e2z * qz);
+        if (t <= epsilon)
+            return -1;
+
+        state.hitU = u;
+        state.hitV = v;
+        return t;
+    }
+
+    /**
+     * Copy the unit normal of a triangle into a vector
+     * 
+     * @param triangle the index of the triangle
+     * @param out      the vector to be overridden with the normal
+     */
+    public void setNormal(int triangle, Vector3 out) {
+
+        int e = triangle * 6;
+        double e1x = edges[e], e1y = edges[e + 1], e1z = edges[e + 2];
+        double e2x = edges[e + 3], e2y = edges[e + 4], e2z = edges[e + 5];
+
+        out.set(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z,
+            e1x * e2y - e1y * e2x);
+        out.setNorm();
+    }
+
+    /**
+     * Get the position buffer, x, y, z of every vertex
+     */
+    float[] positions() {
+        return positions;
+    }
+
+    /**
+     * Get the index buffer, the three verticies of every triangle
+     */
+    int[] indices() {
+        return indices;
+    }
+
+    /**
+     * Get the number of bytes the buffers take up
+     * 
+     * @return the size of the buffers in bytes
+     */
+    public long bytes() {
+        return 4L * positions.length + 4L * indices.length + 4L * edges.length;
+    }
+
+}
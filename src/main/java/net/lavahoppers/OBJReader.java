@@ -7,7 +7,8 @@ package net.lavahoppers;
  */
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Scanner;
 
 /**
@@ -20,17 +21,46 @@ import java.util.Scanner;
  * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
  */
 public class OBJReader {
+
+    /* every mesh read so far by its path */
+    private static final HashMap<String, Mesh> CACHE = new HashMap<>();
     
     /**
      * Reads an OBJ file into a mesh
+     * <p>
+     * Each file is only read once. Reading the same path again returns the
+     * same mesh, so every instance of it shares one set of triangles and one
+     * bounding volume hierarchy.
      * 
      * @param path the path to the OBJ
      * @return the mesh
      */
-    public static Mesh read(String path) {
+    public static synchronized Mesh read(String path) {
 
-        ArrayList<Vector3> verticies = new ArrayList<Vector3>();
-        ArrayList<Triangle> triangles = new ArrayList<Triangle>();
+        Mesh mesh = CACHE.get(path);
+        if (mesh == null) {
+            mesh = load(path);
+            CACHE.put(path, mesh);
+        }
+        return mesh;
+    }
+
+    /**
+     * Reads an OBJ file into a new mesh
+     * <p>
+     * Positions go straight into a float array and faces into an int array,
+     * both doubled in size whenever they fill up, so no object is made per
+     * vertex or per triangle.
+     * 
+     * @param path the path to the OBJ
+     * @return the mesh
+     */
+    private static Mesh load(String path) {
+
+        float[] positions = new float[3 * 1024];
+        int vertexCount = 0;
+        int[] indices = new int[3 * 1024];
+        int indexCount = 0;
 
         Scanner scanner = null;
 
@@ -52,34 +82,38 @@ public class OBJReader {
             switch (parsed[0]) {
 
                 case "v": // verticies
+                    if (positions.length < (vertexCount + 1) * 3)
+                        positions = Arrays.copyOf(positions, positions.length * 2);
                     try {
                         double x = Double.parseDouble(parsed[1]);
                         double y = Double.parseDouble(parsed[2]);
                         double z = Double.parseDouble(parsed[3]);
-                        verticies.add(new Vector3(x, y, z));
+                        positions[vertexCount * 3] = (float)x;
+                        positions[vertexCount * 3 + 1] = (float)y;
+                        positions[vertexCount * 3 + 2] = (float)z;
                     } catch (Exception e) {
                         System.err.println("Failed to load vertex information for: " + line);
-                        verticies.add(new Vector3());
                     }
+                    vertexCount++;
                     break;
 
                 case "f": // faces
                     /* vertex_index/texture_index/normal_index */
                     // potentially incorrect
-                    if (parsed.length == 4)
-                        triangles.add(
-                                new Triangle(verticies.get(Integer.parseInt(parsed[1].split("/")[0]) - 1),
-                                        verticies.get(Integer.parseInt(parsed[2].split("/")[0]) - 1),
-                                        verticies.get(Integer.parseInt(parsed[3].split("/")[0]) - 1)));
-                    else if (parsed.length == 5) {
-                        triangles.add(
-                                new Triangle(verticies.get(Integer.parseInt(parsed[1].split("/")[0]) - 1),
-                                        verticies.get(Integer.parseInt(parsed[2].split("/")[0]) - 1),
-                                        verticies.get(Integer.parseInt(parsed[3].split("/")[0]) - 1)));
-                        triangles.add(
-                                new Triangle(verticies.get(Integer.parseInt(parsed[1].split("/")[0]) - 1),
-                                        verticies.get(Integer.parseInt(parsed[3].split("/")[0]) - 1),
-                                        verticies.get(Integer.parseInt(parsed[4].split("/")[0]) - 1)));
+                    if (parsed.length != 4 && parsed.length != 5)
+                        break;
+                    if (indices.length < indexCount + 6)
+                        indices = Arrays.copyOf(indices, indices.length * 2);
+                    int a = vertex(parsed[1], vertexCount, line);
+                    int b = vertex(parsed[2], vertexCount, line);
+                    int c = vertex(parsed[3], vertexCount, line);
+                    indices[indexCount++] = a;
+                    indices[indexCount++] = b;
+                    indices[indexCount++] = c;
+                    if (parsed.length == 5) {
+                        indices[indexCount++] = a;
+                        indices[indexCount++] = c;
+                        indices[indexCount++] = vertex(parsed[4], vertexCount, line);
                     }
                     break;
 
@@ -90,7 +124,32 @@ public class OBJReader {
         }
         scanner.close();
         
-        return new Mesh(verticies, triangles);
+        return new Mesh(new MeshBuffer(
+            Arrays.copyOf(positions, vertexCount * 3), 
+            Arrays.copyOf(indices, indexCount)));
+    }
+
+    /**
+     * Reads the index of the vertex of one corner of a face
+     * 
+     * @param corner      the corner, as vertex_index/texture_index/normal_index
+     * @param vertexCount the number of verticies read so far
+     * @param line        the line of the face, for the error message
+     * @return the index of the vertex, starting at 0
+     */
+    private static int vertex(String corner, int vertexCount, String line) {
+
+        int index = -1;
+        try {
+            index = Integer.parseInt(corner.split("/")[0]) - 1;
+        } catch (NumberFormatException e) {
+        }
+
+        if (index < 0 || vertexCount <= index) {
+            System.err.println("Face refers to a missing vertex: " + line);
+            System.exit(1);
+        }
+        return index;
     }
 
 
@@ -6,8 +6,6 @@ package net.lavahoppers;
  * 19 Sep 2021
  */
 
-import java.util.Random;
-
 import org.json.simple.JSONObject;
 
 /**
@@ -25,6 +23,9 @@ public class PathTracer {
 
 	public static final int BUCKET_SIZE = 48;
 
+	/* paths never survive russian roulette more surely than this */
+	private static final double MAX_SURVIVAL = 0.95;
+
 	public static int raysPerPixel = 1;
 	public static int rayBounces = 1;
 	public static int recursiveScatters = 1;
@@ -33,11 +34,36 @@ public class PathTracer {
 
 	public static String outputFileLocation = "./";
 	public static String hdriFileName = "";
+	public static boolean isEnvironmentFiltered = false;
+	public static String accelerator = "bvh";
+	public static String bvhBuilder = "midpoint";
+	public static boolean isOrderedTraversal = false;
+	public static int bvhBuildThreads = 1;
+	public static int packetSize = 0;
+	public static boolean isWavefront = false;
+	public static boolean isRecursive = false;
+	public static int rouletteDepth = 3;
+	public static boolean isCosineSampling = true;
+	public static double diffuseAlbedo = 0.8;
+	public static boolean isNextEventEstimation = true;
+	public static boolean isAdaptive = false;
+	public static int adaptiveBaseSamples = 4;
+	public static double adaptiveThreshold = 0.5;
+	public static double adaptiveNoiseTarget = 0.25;
+	public static int bvhWidth = 2;
+	public static double sbvhDuplicationLimit = 0.3;
+	public static int lbvhMortonBits = 63;
+	public static boolean isLBVHTreelets = false;
+	public static double bvhRebuildThreshold = 1.5;
+	public static boolean isBVHCompressed = false;
+	public static boolean isSinglePrecision = false;
+	public static String samplerType = "random";
+	public static long samplerSeed = 0;
+	public static String referenceFileName = "";
  
 	public static FastBufferedImage image = null;
 	public static Display display = null;
 	public static Scene	scene = null;
-	public static final Random RANDOM = new Random();
 
 	public static Vector3 cameraLocation = null;
 	public static double cameraTheta = 0;
@@ -49,29 +75,37 @@ public class PathTracer {
 			
 	
 	/**
-	 * Returns a normalized camera ray for a pixel
+	 * Make a normalized camera ray for a pixel
+	 * <p>
+	 * The ray goes through a point of the pixel picked by the next two
+	 * numbers of the sampler.
 	 * 
-	 * @param x the pixel's x position
-	 * @param y the pixel's y position
+	 * @param x       the pixel's x position
+	 * @param y       the pixel's y position
+	 * @param sampler the sampler of the current sample
+	 * @param rayOut  the Vector3 to be overridden with the camera ray
 	 * 
-	 * @return the camera ray
+	 * @return {@code rayOut}
 	 */
-	public static Vector3 getCameraRay(int x, int y) {
+	public static Vector3 getCameraRay(int x, int y, Sampler sampler, 
+			Vector3 rayOut) {
 
 		double inv = (double)image.getHeight() / image.getWidth();
+		double jitterX = sampler.next();
+		double jitterY = sampler.next();
 
-		Vector3 ray = new Vector3(
+		rayOut.set(
 			1.0,
-			inv - (2.0 * inv) * (y + RANDOM.nextDouble()) / image.getHeight(),
-			1.0 - (2.0 		) * (x + RANDOM.nextDouble()) / image.getWidth()
+			inv - (2.0 * inv) * (y + jitterY) / image.getHeight(),
+			1.0 - (2.0 		) * (x + jitterX) / image.getWidth()
 		);
 
 		if (cameraPhi != 0)
-			ray.setMatrixRotation(cameraPhiMatrix);
+			rayOut.setMatrixRotation(cameraPhiMatrix);
 		if (cameraTheta != 0)
-			ray.setMatrixRotation(cameraThetaMatrix);
+			rayOut.setMatrixRotation(cameraThetaMatrix);
 		
-		return ray.norm();
+		return rayOut.setNorm();
 	}
 
 	/**
@@ -123,67 +157,254 @@ public class PathTracer {
 		);
 
 		hdriFileName = JSONReader.getString(root, "hdri-file-name");
+		isEnvironmentFiltered = "bilinear".equals(
+			JSONReader.getString(root, "hdri-filter")
+		);
+
+		accelerator = JSONReader.getString(root, "accelerator");
+		bvhBuilder = JSONReader.getString(root, "bvh-builder");
+		isOrderedTraversal = "ordered".equals(
+			JSONReader.getString(root, "bvh-traversal")
+		);
+		bvhBuildThreads = JSONReader.getInt(root, "bvh-build-threads");
+		packetSize = JSONReader.getInt(root, "packet-size");
+		isWavefront = "wavefront".equals(
+			JSONReader.getString(root, "integrator")
+		);
+		isRecursive = "recursive".equals(
+			JSONReader.getString(root, "integrator")
+		);
+		rouletteDepth = JSONReader.getInt(root, "russian-roulette-depth");
+		isCosineSampling = !"uniform".equals(
+			JSONReader.getString(root, "diffuse-sampling")
+		);
+		diffuseAlbedo = JSONReader.getDouble(root, "diffuse-albedo");
+		isNextEventEstimation = JSONReader.getBoolean(
+			root, "next-event-estimation"
+		);
+		isAdaptive = JSONReader.getBoolean(root, "adaptive-sampling");
+		adaptiveBaseSamples = JSONReader.getInt(
+			root, "adaptive-base-samples"
+		);
+		adaptiveThreshold = JSONReader.getDouble(root, "adaptive-threshold");
+		adaptiveNoiseTarget = JSONReader.getDouble(
+			root, "adaptive-noise-target"
+		);
+		if (isAdaptive && isWavefront) {
+			System.err.println(
+				"adaptive-sampling needs the path or recursive integrator.");
+			System.exit(1);
+		}
+		if (isAdaptive && raysPerPixel < 2) {
+			System.err.println(
+				"adaptive-sampling needs a rays-per-pixel of at least 2.");
+			System.exit(1);
+		}
+		if (packetSize * packetSize > RayPacket.MAX_SIZE) {
+			System.err.println("The packet-size can be at most 8.");
+			System.exit(1);
+		}
+		bvhWidth = JSONReader.getInt(root, "bvh-width");
+		sbvhDuplicationLimit = JSONReader.getDouble(
+			root, "sbvh-duplication-limit"
+		);
+		lbvhMortonBits = JSONReader.getInt(root, "lbvh-morton-bits");
+		isLBVHTreelets = JSONReader.getBoolean(
+			root, "lbvh-treelet-optimization"
+		);
+		bvhRebuildThreshold = JSONReader.getDouble(
+			root, "bvh-rebuild-threshold"
+		);
+		isBVHCompressed = JSONReader.getBoolean(root, "bvh-compression");
+		isSinglePrecision = "float".equals(
+			JSONReader.getString(root, "geometry-precision")
+		);
+		samplerType = JSONReader.getString(root, "sampler");
+		samplerSeed = JSONReader.getInt(root, "sampler-seed");
+		referenceFileName = JSONReader.getString(root, "reference-image");
+		if (bvhBuildThreads < 1)
+			bvhBuildThreads = Runtime.getRuntime().availableProcessors();
 
 	
 	}
 
 	/**
      * Render a single pixel on the image
+	 * <p>
+	 * Every vector and hit record used along the way belongs to the
+	 * {@link ShadingState} of the thread, so no sample allocates. The sampler
+	 * is started afresh for every sample, so the pixel comes out the same
+	 * whichever thread renders it and whatever was rendered before.
 	 * 
      * @param x the x location of the pixel 
      * @param y the y location of the pixel
      */
     public static void renderPixel(int x, int y) {
 
-		Vector3 pixelColor = new Vector3();
+		ShadingState scratch = ShadingState.get();
 
-		Vector3 surfaceLocation = new Vector3();
-		Vector3 surfaceNormal = new Vector3();
-		Vector3 surfaceColor = new Vector3();
+		Vector3 pixelColor = scratch.pixelColor;
+		Vector3 sampleColor = scratch.sampleColor;
 
-		Vector3 cameraRay = null;
+		pixelColor.set(0, 0, 0);
 		
 		for (int i = 0; i < raysPerPixel; i++) {
+			samplePixel(x, y, i, sampleColor);
+			pixelColor.setAdd(sampleColor);
+		}
 
-			cameraRay = getCameraRay(x, y);
+		writePixel(x, y, pixelColor);
+    }
 
-			boolean isRayIntersect = scene.intersect(
-				cameraLocation, 
-				cameraRay, 
-				surfaceLocation,
-				surfaceNormal, 
-				surfaceColor
-			);
+	/**
+	 * Work out the light of one sample of a pixel
+	 * 
+	 * @param x        the x location of the pixel
+	 * @param y        the y location of the pixel
+	 * @param sample   the index of the sample within the pixel
+	 * @param colorOut the Vector3 to be overridden with the light
+	 */
+	public static void samplePixel(int x, int y, int sample, 
+			Vector3 colorOut) {
 
-			if (isRayIntersect) {
-				pixelColor.setAdd(renderingEquation(
-					cameraLocation, 
-					cameraRay, 
-					surfaceLocation,
-					surfaceNormal, 
-					surfaceColor,
-					initialScatters,
-					0
-				));
-			} else {
-				pixelColor.setAdd(Scene.getDirectionalLight(cameraRay));
+		ShadingState scratch = ShadingState.get();
+
+		Vector3 cameraRay = scratch.ray;
+		HitRecord hit = scratch.hit;
+		Sampler sampler = scratch.sampler;
+
+		sampler.start(x, y, sample, 0);
+		getCameraRay(x, y, sampler, cameraRay);
+
+		if (scene.intersect(cameraLocation, cameraRay, hit)) {
+			shade(cameraRay, hit, colorOut);
+		} else {
+			Scene.getDirectionalLight(cameraRay, colorOut);
+		}
+	}
+
+	/**
+	 * Render a block of pixels, tracing the camera rays of each sample as one
+	 * packet
+	 * <p>
+	 * Only the camera rays are traced together. Everything after the first
+	 * hit is the same as in {@link #renderPixel(int, int)}. The pixels go
+	 * into the packet in Morton order so that any range of rays in it covers
+	 * a compact patch of the block.
+	 * 
+	 * @param x      the lowest x value of the block
+	 * @param y      the lowest y value of the block
+	 * @param width  the width of the block, at most 8
+	 * @param height the height of the block, at most 8
+	 * @see Scene#intersect(RayPacket)
+	 */
+	public static void renderBlock(int x, int y, int width, int height) {
+
+		ShadingState scratch = ShadingState.get();
+
+		int count = width * height;
+		Vector3[] pixelColors = scratch.pixelColors;
+		int[] pixelX = scratch.pixelX;
+		int[] pixelY = scratch.pixelY;
+
+		/* interleave the bits of the pixel offsets, skipping any that fall
+		outside a block cut short by the edge of the image */
+		for (int m = 0, j = 0; j < count; m++) {
+			int px = 0, py = 0;
+			for (int bit = 0; bit < 3; bit++) {
+				px |= ((m >> (2 * bit)) & 1) << bit;
+				py |= ((m >> (2 * bit + 1)) & 1) << bit;
+			}
+			if (px < width && py < height) {
+				pixelX[j] = x + px;
+				pixelY[j] = y + py;
+				pixelColors[j++].set(0, 0, 0);
+			}
+		}
+
+		Vector3 cameraRay = scratch.ray;
+		Vector3 sampleColor = scratch.sampleColor;
+		HitRecord hit = scratch.hit;
+		Sampler sampler = scratch.sampler;
+
+		RayPacket packet = Traversal.get().packet();
+
+		for (int i = 0; i < raysPerPixel; i++) {
+
+			packet.size = count;
+			packet.ox = cameraLocation.getX();
+			packet.oy = cameraLocation.getY();
+			packet.oz = cameraLocation.getZ();
+
+			for (int j = 0; j < count; j++) {
+				sampler.start(pixelX[j], pixelY[j], i, 0);
+				getCameraRay(pixelX[j], pixelY[j], sampler, cameraRay);
+				packet.dx[j] = cameraRay.getX();
+				packet.dy[j] = cameraRay.getY();
+				packet.dz[j] = cameraRay.getZ();
 			}
 
+			scene.intersect(packet);
+
+			/* each sample carries on from its camera ray, so a pixel comes
+			out the same as it would from renderPixel */
+			for (int j = 0; j < count; j++) {
+				sampler.start(pixelX[j], pixelY[j], i, 
+					Sampler.CAMERA_DIMENSIONS);
+				cameraRay.set(packet.dx[j], packet.dy[j], packet.dz[j]);
+				if (scene.getHit(packet, j, hit)) {
+					shade(cameraRay, hit, sampleColor);
+				} else {
+					Scene.getDirectionalLight(cameraRay, sampleColor);
+				}
+				pixelColors[j].setAdd(sampleColor);
+			}
 		}
 
-		
-/*
-        Vector3 pixelColor = new Vector3();
-		
-        for (int i = 0; i < raysPerPixel; i++)
-			pixelColor.setAdd(getLightFromDirection(
-					initialScatters,
-					0, 
-					cameraLocation, 
-					getCameraRay(x, y)
-			));
-*/
-        pixelColor.setScale(1.0 / raysPerPixel);
+		for (int j = 0; j < count; j++)
+			writePixel(pixelX[j], pixelY[j], pixelColors[j]);
+	}
+
+	/**
+	 * Average the samples of a pixel and put it on the image
+	 * 
+	 * @param x          the x location of the pixel
+	 * @param y          the y location of the pixel
+	 * @param pixelColor the sum of the samples, overridden with their average
+	 */
+	public static void writePixel(int x, int y, Vector3 pixelColor) {
+		writePixel(x, y, pixelColor, raysPerPixel);
+	}
+
+	/**
+	 * Average the samples of a pixel and put it on the image, counting the
+	 * pixel as rendered
+	 * 
+	 * @param x          the x location of the pixel
+	 * @param y          the y location of the pixel
+	 * @param pixelColor the sum of the samples, overridden with their average
+	 * @param samples    the number of samples
+	 */
+	public static void writePixel(int x, int y, Vector3 pixelColor, 
+			int samples) {
+		setPixel(x, y, pixelColor, samples);
+		pixelsRendered++;
+	}
+
+	/**
+	 * Average the samples of a pixel and put it on the image again, for a
+	 * pixel that was already counted as rendered and has had more samples
+	 * since
+	 * 
+	 * @param x          the x location of the pixel
+	 * @param y          the y location of the pixel
+	 * @param pixelColor the sum of the samples, overridden with their average
+	 * @param samples    the number of samples
+	 */
+	public static void setPixel(int x, int y, Vector3 pixelColor, 
+			int samples) {
+
+        pixelColor.setScale(1.0 / samples);
 
         image.setPixel(x, y, 
 			(int)(pixelColor.getX() > 255 ? 255 : pixelColor.getX()), 
@@ -192,75 +413,196 @@ public class PathTracer {
 
 		if (display != null)
 			display.repaint();
-		
-		pixelsRendered++;
-    }
+	}
 
 	/**
+	 * Work out the light a camera ray brings back from the first surface it
+	 * hits, with the integrator the {@code integrator} setting asks for
 	 * 
-	 * @param observer
-	 * @param omega0
-	 * @param x
-	 * @param n
-	 * @param gamma
-	 * @param scatters
-	 * @param bounce
-	 * @return
+	 * @param cameraRay the camera ray
+	 * @param hit       the hit of the camera ray
+	 * @param colorOut  the Vector3 to be overridden with the light
+	 */
+	private static void shade(Vector3 cameraRay, HitRecord hit, 
+			Vector3 colorOut) {
+		if (isRecursive)
+			renderingEquation(cameraRay, hit, initialScatters, 0, 0, colorOut);
+		else
+			tracePath(cameraRay, hit, colorOut);
+	}
+
+	/**
+	 * Follow a single path from a surface until it leaves the scene
+	 * <p>
+	 * Every surface scatters exactly one ray, and the path carries a
+	 * throughput: the product of the weights of its scatters so far, which
+	 * is what the light it finally escapes to is scaled by. This is the same
+	 * estimate as {@link #renderingEquation} with one scatter per surface,
+	 * but it runs as a loop, so each sample costs at most 
+	 * {@code ray-bounces} rays.
+	 * <p>
+	 * From the {@code russian-roulette-depth}th bounce on the path is ended
+	 * at random with a chance of one minus its throughput, and paths that
+	 * survive have their throughput divided by the chance they had. Dim
+	 * paths that could only add a little light are mostly cut short, and the
+	 * estimate stays unbiased.
+	 * <p>
+	 * With {@code next-event-estimation} on, every surface also picks a
+	 * direction towards the HDRI, bright parts more likely, and sends a
+	 * shadow ray along it. The light found that way and the light the
+	 * diffuse scatter escapes to estimate the same thing, so the two are
+	 * combined with multiple importance sampling: each is weighted by the
+	 * power heuristic of the densities both ways of sampling have for its
+	 * direction. A small sun is then found by the shadow rays, a wide sky by
+	 * the scatters, and neither is counted twice. Specular scatters keep
+	 * all of the light they escape to.
+	 * <p>
+	 * The two frames of the thread's {@link ShadingState} take turns holding
+	 * the current and the next hit. Every bounce draws its numbers in pairs
+	 * that line up with the pairs of the sampler: the choice of scatter and
+	 * the roulette, the direction towards the HDRI, then the direction of
+	 * the scatter.
+	 * 
+	 * @param omega0   the ray arriving at the surface
+	 * @param surface  the hit on the surface
+	 * @param colorOut the Vector3 to be overridden with the light
+	 */
+	private static void tracePath(Vector3 omega0, HitRecord surface, 
+			Vector3 colorOut) {
+
+		colorOut.set(0, 0, 0);
+
+		ShadingState scratch = ShadingState.get();
+		Sampler sampler = scratch.sampler;
+
+		Vector3 ray = omega0;
+		HitRecord hit = surface;
+		double throughput = 1;
+
+		for (int bounce = 0; ; bounce++) {
+
+			ShadingState.Frame frame = scratch.frame(bounce & 1);
+			Vector3 scatterRay = frame.ray;
+			Vector3 n = hit.normal;
+
+			double rand = sampler.next();
+			double roulette = sampler.next();
+			double fresnel = fresnelEffect(ray, n);
+
+			if (isNextEventEstimation) {
+				Vector3 light = frame.light;
+				double lightPdf = Scene.sampleEnvironment(sampler.next(), 
+					sampler.next(), light);
+				double cosOfAngle = n.dot(light);
+				if (0 < lightPdf && 0 < cosOfAngle && 
+						!scene.occluded(hit.point, light, Double.MAX_VALUE)) {
+					double diffusePdf = (1 - fresnel) * 
+						getDiffusePdf(cosOfAngle);
+					Scene.getDirectionalLight(light, frame.color);
+					colorOut.setScaleAdd(frame.color, throughput * 
+						(1 - fresnel) * diffuseAlbedo / Math.PI * cosOfAngle / 
+						lightPdf * powerHeuristic(lightPdf, diffusePdf));
+				}
+			}
+
+			/* the density the diffuse scatter had for its ray, 0 when the
+			ray was specular and gets no multiple importance sampling */
+			double scatterPdf = 0;
+			if (fresnel < rand) {
+				throughput *= getDiffuseScatter(n, sampler, scatterRay);
+				if (isNextEventEstimation)
+					scatterPdf = (1 - fresnel) * 
+						getDiffusePdf(n.dot(scatterRay));
+			} else
+				throughput *= getSpecularScatter(.2, n, ray, sampler, 
+					scatterRay);
+
+			if (!scene.intersect(hit.point, scatterRay, frame.hit)) {
+				double misWeight = scatterPdf == 0 ? 1 : powerHeuristic(
+					scatterPdf, Scene.getEnvironmentPdf(scatterRay));
+				Scene.getDirectionalLight(scatterRay, frame.color);
+				colorOut.setScaleAdd(frame.color, throughput * misWeight);
+				return;
+			}
+
+			if (rayBounces <= bounce)
+				return;
+
+			if (rouletteDepth <= bounce) {
+				double survival = Math.min(throughput, MAX_SURVIVAL);
+				if (survival <= roulette)
+					return;
+				throughput /= survival;
+			}
+
+			ray = scatterRay;
+			hit = frame.hit;
+		}
+	}
+
+	/**
+	 * Work out the light leaving a surface towards an observer
+	 * <p>
+	 * This is the {@code "recursive"} integrator. Every surface scatters
+	 * {@code scatters} rays and recurses into each of them, so the cost of a
+	 * sample grows with the number of scatters to the power of the number of
+	 * bounces.
+	 * <p>
+	 * The rays scattered off the surface and the hits they find live in the
+	 * frame of {@code level} in the thread's {@link ShadingState}, and the
+	 * next level down uses the next frame, so nothing is allocated however
+	 * deep the recursion goes.
+	 * 
+	 * @param omega0   the ray arriving at the surface
+	 * @param surface  the hit on the surface
+	 * @param scatters the number of rays to scatter off the surface
+	 * @param bounce   the bounce the surface was reached on
+	 * @param level    the depth of the recursion
+	 * @param colorOut the Vector3 to be overridden with the light
 	 */
-	private static Vector3 renderingEquation(
-		Vector3 observer, Vector3 omega0, Vector3 x, Vector3 n, Vector3 gamma, 
-		int scatters, int bounce
+	private static void renderingEquation(
+		Vector3 omega0, HitRecord surface, int scatters, int bounce, int level,
+		Vector3 colorOut
 	) {
 
+		colorOut.set(0, 0, 0);
+
 		if (rayBounces < bounce)
-			return new Vector3();
+			return;
 
-		Vector3 colorOut = new Vector3();
-
-		Vector3 surfaceLocation = new Vector3();
-		Vector3 surfaceNormal = new Vector3();
-		Vector3 surfaceColor = new Vector3();
+		ShadingState scratch = ShadingState.get();
+		ShadingState.Frame frame = scratch.frame(level);
+		Sampler sampler = scratch.sampler;
+		Vector3 scatterRay = frame.ray;
+		Vector3 n = surface.normal;
 
 		for (int i = 0; i < scatters; i++) {
 
-			double rand = RANDOM.nextDouble();
-			Vector3 scatterRay = 
-				fresnelEffect(omega0, n) < rand ?
-				scatterRay = getDiffuseScatter(n) :
-				getSpecularScatter(.2, n, omega0);
-
-			boolean isRayIntersect = scene.intersect(
-				x, 
-				scatterRay, 
-				surfaceLocation,
-				surfaceNormal, 
-				surfaceColor
-			);
+			double rand = sampler.next();
+			double weight = fresnelEffect(omega0, n) < rand ?
+				getDiffuseScatter(n, sampler, scatterRay) :
+				getSpecularScatter(.2, n, omega0, sampler, scatterRay);
 
-			if (isRayIntersect) {
+			if (scene.intersect(surface.point, scatterRay, frame.hit)) {
 
-				double cosOfAngle = n.dot(scatterRay);
-				cosOfAngle = cosOfAngle < 0 ? -cosOfAngle : cosOfAngle;
-
-				colorOut.setAdd(renderingEquation(
-					x, 
+				renderingEquation(
 					scatterRay, 
-					surfaceLocation,
-					surfaceNormal, 
-					surfaceColor,
+					frame.hit,
 					recursiveScatters,
-					bounce++
-				).scale(cosOfAngle));
+					bounce + 1,
+					level + 1,
+					frame.color
+				);
+				colorOut.setScaleAdd(frame.color, weight);
 
 			} else {
-				colorOut.setAdd(Scene.getDirectionalLight(scatterRay));
+				colorOut.setScaleAdd(
+					Scene.getDirectionalLight(scatterRay, frame.color), weight);
 			}
 
 		}
 
 		colorOut.setScale(1.0 / scatters);
-
-		return colorOut;
 	}
 
 	/**
@@ -336,43 +678,131 @@ public class PathTracer {
 	public static double fresnelEffect(Vector3 observerRay, Vector3 surfaceNormal) {
 		double c = 10;
 		double b = .01;
-		double cosOfAngle = observerRay.scale(-1).dot(surfaceNormal);
+		double cosOfAngle = observerRay.dot(surfaceNormal);
 		cosOfAngle = cosOfAngle < 0 ? -cosOfAngle : cosOfAngle;
 
 		return 1.0 / (1.0 + b) * (Math.pow(2.0, cosOfAngle * -c) + b);
 	}
 
 	/**
-	 * Gives a random sunlight ray
+	 * Gives a random ray scattered off a diffuse surface
+	 * <p>
+	 * A diffuse surface reflects light arriving from a direction in
+	 * proportion to the cosine between it and the normal, so the rays are
+	 * picked with that same density: a point is picked uniformly on the unit
+	 * disk and lifted up onto the hemisphere around the normal. The cosine
+	 * and the density then cancel, and every ray carries just the albedo.
 	 * <p>
-	 * Randomizing the sulight rays a bit allows for soft shadows.
+	 * With the {@code diffuse-sampling} setting at {@code "uniform"} every
+	 * direction of the hemisphere is equally likely instead, and each ray is
+	 * weighted by twice the albedo times its cosine. That gives the same
+	 * image with more noise, which is what makes the difference measurable.
+	 * 
 	 * @param surfaceNormal the normal to the surfece that the ray is scattering
 	 * 						from
-	 * @return get a random sunlight ray
+	 * @param sampler the sampler of the current sample
+	 * @param rayOut the Vector3 to be overridden with the scattered ray
+	 * @return the weight of the scattered ray
 	 */
-	public static Vector3 getDiffuseScatter(Vector3 surfaceNormal) {
+	public static double getDiffuseScatter(Vector3 surfaceNormal, 
+			Sampler sampler, Vector3 rayOut) {
 
-		Vector3 scatterRay = new Vector3(
-			RANDOM.nextDouble() - 0.5,
-			RANDOM.nextDouble() - 0.5,
-			RANDOM.nextDouble() - 0.5
-		).setNorm();
+		double u1 = sampler.next();
+		double u2 = sampler.next();
 
-		if (scatterRay.dot(surfaceNormal) < 0) 
-			scatterRay.setScale(-1.0);
-		
-		return scatterRay;
+		double cosOfAngle = isCosineSampling ? Math.sqrt(1 - u1) : u1;
+		double sinOfAngle = Math.sqrt(1 - cosOfAngle * cosOfAngle);
+		double phi = 2 * Math.PI * u2;
+
+		setLocalToWorld(surfaceNormal, sinOfAngle * Math.cos(phi), 
+			sinOfAngle * Math.sin(phi), cosOfAngle, rayOut);
+
+		return isCosineSampling ? 
+			diffuseAlbedo : 2 * diffuseAlbedo * cosOfAngle;
 	}
 
-	public static Vector3 getSpecularScatter(double spread, Vector3 surfaceNormal, Vector3 ray) {
+	/**
+	 * Gives the density {@link #getDiffuseScatter} picks a ray with
+	 * 
+	 * @param cosOfAngle the cosine between the ray and the normal
+	 * @return the density of the ray per unit solid angle
+	 */
+	public static double getDiffusePdf(double cosOfAngle) {
+		return isCosineSampling ? cosOfAngle / Math.PI : 0.5 / Math.PI;
+	}
 
-		Vector3 scatterRay = new Vector3(
-			RANDOM.nextDouble() - 0.5,
-			RANDOM.nextDouble() - 0.5,
-			RANDOM.nextDouble() - 0.5
-		).setNorm();
+	/**
+	 * Gives the weight of a sample taken one way when it could also have
+	 * been taken another way, from the power heuristic of Veach
+	 * 
+	 * @see <a href=https://graphics.stanford.edu/papers/veach_thesis/>Robust
+	 *      Monte Carlo Methods for Light Transport Simulation</a>
+	 * @param pdf      the density the sample was taken with
+	 * @param otherPdf the density the other way has for the same sample
+	 * @return the weight, between 0 and 1
+	 */
+	private static double powerHeuristic(double pdf, double otherPdf) {
+		return pdf * pdf / (pdf * pdf + otherPdf * otherPdf);
+	}
 
-		return Vector3.rotate(ray, surfaceNormal, Math.PI).scale(-1).add(scatterRay.scale(spread)).norm();
+	/**
+	 * Turn a direction given relative to a normal into world space
+	 * <p>
+	 * The two tangents are built without any branch on which axis the
+	 * normal is closest to.
+	 * 
+	 * @see <a href=https://jcgt.org/published/0006/01/01/>Building an
+	 *      Orthonormal Basis, Revisited</a>
+	 * @param n      the unit normal, the z axis of the local frame
+	 * @param x      the component along the first tangent
+	 * @param y      the component along the second tangent
+	 * @param z      the component along the normal
+	 * @param rayOut the Vector3 to be overridden with the direction
+	 */
+	private static void setLocalToWorld(Vector3 n, double x, double y, 
+			double z, Vector3 rayOut) {
+
+		double nx = n.getX(), ny = n.getY(), nz = n.getZ();
+		double sign = nz < 0 ? -1.0 : 1.0;
+		double a = -1.0 / (sign + nz);
+		double b = nx * ny * a;
+
+		rayOut.set(
+			x * (1 + sign * nx * nx * a) + y * b + z * nx,
+			x * sign * b + y * (sign + ny * ny * a) + z * ny,
+			x * -sign * nx + y * -ny + z * nz
+		);
+	}
+
+	/**
+	 * Gives the mirror reflection of a ray, blurred by a random offset
+	 * 
+	 * @param spread        how far the reflection is pushed off the mirror
+	 * 						direction
+	 * @param surfaceNormal the normal to the surface the ray reflects off
+	 * @param ray           the ray arriving at the surface
+	 * @param sampler       the sampler of the current sample
+	 * @param rayOut        the Vector3 to be overridden with the reflected ray
+	 * @return the weight of the reflected ray, always 1
+	 */
+	public static double getSpecularScatter(double spread, Vector3 surfaceNormal, 
+			Vector3 ray, Sampler sampler, Vector3 rayOut) {
+
+		/* a uniform point on the unit sphere, from two numbers so the
+		draws line up with those of a diffuse scatter */
+		double z = 1 - 2 * sampler.next();
+		double r = Math.sqrt(1 - z * z);
+		double phi = 2 * Math.PI * sampler.next();
+		rayOut.set(r * Math.cos(phi), r * Math.sin(phi), z);
+		rayOut.setScale(spread);
+
+		/* r - 2(n.r)n is the ray rotated half a turn about the normal and
+		flipped, which needs no quaternion */
+		rayOut.setAdd(ray)
+			.setScaleAdd(surfaceNormal, -2.0 * surfaceNormal.dot(ray))
+			.setNorm();
+
+		return 1;
 	}
 
 
@@ -502,11 +932,17 @@ public class PathTracer {
 
 		scene = new Scene();
 
-		scene.meshes.add(OBJReader.read("obj/dragon.obj"));
-		scene.meshes.add(OBJReader.read("obj/plane.obj"));
+		scene.add(OBJReader.read("obj/dragon.obj"));
+		scene.add(OBJReader.read("obj/plane.obj"));
+		scene.build();
 
 
-		if (isMultithreadRender) {
+		/* the wavefront integrator and adaptive sampling spread their work
+		over the cores themselves, so they only need one thread for the whole
+		image */
+		if (isWavefront || isAdaptive) {
+			new RenderThread(0, 0, image.getWidth(), image.getHeight()).start();
+		} else if (isMultithreadRender) {
 			RenderThread[] threads = getRenderThreads();
 			for (int i = 0; i < threads.length;)  {
 				printProgressBar();				
@@ -539,9 +975,25 @@ public class PathTracer {
 			(double)deltaTime / (double)(pixelsRendered)
 		);
 
+		long[] traversal = Traversal.totals();
+		System.out.printf(
+			"Traced %d rays with %.1f box tests and %.1f triangle tests " + 
+			"per ray.\n", traversal[0], 
+			(double)traversal[1] / Math.max(1, traversal[0]), 
+			(double)traversal[2] / Math.max(1, traversal[0])
+		);
+
 		System.out.println("Saved completed render as \"" + fileName + 
 			".png\" in \"" + outputFileLocation + "\"." );
 
+		/* the error after a known time is what tells samplers apart */
+		if (referenceFileName.length() != 0)
+			System.out.printf(
+				"The RMS error against \"%s\" was %.3f after %s.\n",
+				referenceFileName, image.rmsError(referenceFileName),
+				milliToTime(deltaTime)
+			);
+
 	}
 
 	/**
@@ -0,0 +1,86 @@
+package net.lavahoppers;
+
+/*
+ * RandomSampler.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A sampler whose numbers are a hash of the pixel, the sample and the
+ * dimension.
+ * <p>
+ * There is no state to advance, so nothing is shared and nothing depends on
+ * order: the key of a sample is mixed from the seed and its coordinates once,
+ * and every number after that is the key plus a multiple of the golden ratio
+ * put through the SplitMix64 finalizer. The top 53 bits become the double.
+ * 
+ * @see <a href=https://doi.org/10.1145/2714064.2660195>Fast Splittable
+ *      Pseudorandom Number Generators</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class RandomSampler implements Sampler {
+
+    /* 2^64 divided by the golden ratio */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    /* the hash of the seed, pixel and sample */
+    private long key;
+
+    private int dimension;
+
+    /**
+     * Create a sampler
+     * 
+     * @param seed picks one of many possible renders of the same scene
+     */
+    public RandomSampler(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Start drawing the numbers of a sample
+     * 
+     * @param x         the x location of the pixel
+     * @param y         the y location of the pixel
+     * @param sample    the index of the sample within the pixel
+     * @param dimension how many numbers of the sample were already drawn
+     */
+    public void start(int x, int y, int sample, int dimension) {
+        key = mix(mix(mix(seed + GOLDEN * x) + y) + sample);
+        this.dimension = dimension;
+    }
+
+    /**
+     * Draw the next number of the sample
+     * 
+     * @return a number in [0, 1)
+     */
+    public double next() {
+        dimension++;
+        return (mix(key + GOLDEN * dimension) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Get how many numbers of the current sample were drawn so far
+     * 
+     * @return the index of the next number
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Scramble the bits of a long so that every input bit affects every
+     * output bit
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
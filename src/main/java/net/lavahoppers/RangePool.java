@@ -0,0 +1,92 @@
+package net.lavahoppers;
+
+/*
+ * RangePool.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork join pool that runs a piece of work over a range of indices, split
+ * into smaller ranges spread over its threads.
+ * <p>
+ * Each thread gets several ranges, so a thread whose range turns out cheap
+ * can take another while the rest finish theirs. With one thread, or too
+ * little to split, the work runs on the calling thread.
+ * 
+ * @see WavefrontIntegrator
+ * @see AdaptiveRenderer
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class RangePool {
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final int chunksPerThread;
+
+    /**
+     * Create a pool
+     * 
+     * @param threads         the number of threads the work runs on
+     * @param chunksPerThread the number of ranges the work is split into
+     *                        per thread
+     */
+    public RangePool(int threads, int chunksPerThread) {
+        this.threads = Math.max(1, threads);
+        this.chunksPerThread = Math.max(1, chunksPerThread);
+        this.pool = new ForkJoinPool(this.threads);
+    }
+
+    /**
+     * A piece of work done for every index in a range
+     */
+    abstract static class Range {
+        abstract void run(int start, int end);
+    }
+
+    /**
+     * Run a piece of work over the indices from 0 up to some count and wait
+     * for all of it to finish
+     * 
+     * @param count the number of indices
+     * @param range the work
+     */
+    public void forEach(int count, final Range range) {
+
+        int chunks = Math.min(count, threads * chunksPerThread);
+        if (threads == 1 || chunks <= 1) {
+            range.run(0, count);
+            return;
+        }
+
+        ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (int c = 0; c < chunks; c++) {
+            final int start = (int)((long)count * c / chunks);
+            final int end = (int)((long)count * (c + 1) / chunks);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    range.run(start, end);
+                }
+            });
+        }
+
+        for (RecursiveAction task : tasks)
+            pool.execute(task);
+        for (RecursiveAction task : tasks)
+            task.join();
+    }
+
+    /**
+     * Let the threads of the pool go once there is no more work
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,332 @@
+package net.lavahoppers;
+
+/*
+ * RayPacket.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A block of rays with a shared origin that are traced through the scene
+ * together.
+ * <p>
+ * Camera rays through neighbouring pixels take almost the same path through
+ * a hierarchy, so a packet walks it once for all of them. A node is entered
+ * as soon as one ray hits it, and only the range from the first to the last
+ * ray that hit it is carried further down. Before the rays are tested one by
+ * one the whole packet is tested with interval arithmetic: if the range of
+ * directions in the packet can not reach the box then no ray in it can.
+ * <p>
+ * The rays are stored as arrays of coordinates. The closest hit of every ray
+ * lives in arrays that the packet shares with its object space copy, so a
+ * hit found in any instance updates the same record.
+ * 
+ * @see Scene#intersect(RayPacket)
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class RayPacket {
+
+    /* the most rays in a packet, an 8x8 block of pixels */
+    public static final int MAX_SIZE = 64;
+
+    /* once this few rays are left in a packet they are traced one by one */
+    public static final int BREAKUP = 4;
+
+    /** the number of rays in the packet */
+    public int size = 0;
+
+    /** the origin shared by every ray */
+    public double ox, oy, oz;
+
+    /** the direction of every ray */
+    public final double[] dx, dy, dz;
+
+    /** one over the direction of every ray */
+    public final double[] ix, iy, iz;
+
+    /** 
+     * the index within its mesh of the closest triangle hit by every ray,
+     * -1 if nothing was hit 
+     */
+    public final int[] triangle;
+
+    /** the distance to the closest triangle hit by every ray */
+    public final double[] distance;
+
+    /**
+     * the barycentric weights of the second and third point of the closest
+     * triangle hit by every ray
+     */
+    public final double[] u, v;
+
+    /** the instance the closest triangle of every ray belongs to */
+    public final Instance[] instance;
+
+    /* the distances before an instance was searched */
+    private final double[] saved = new double[MAX_SIZE];
+
+    /* are the directions all of one sign along every axis */
+    private boolean isCoherent = false;
+
+    /* the range of the inverse directions along x, y and z */
+    private final double[] inverseMin = new double[3];
+    private final double[] inverseMax = new double[3];
+
+    /**
+     * Create an empty packet
+     */
+    public RayPacket() {
+        this(new int[MAX_SIZE], new double[MAX_SIZE], new double[MAX_SIZE],
+            new double[MAX_SIZE], new Instance[MAX_SIZE]);
+    }
+
+    /**
+     * Create an empty packet that records its hits in the same place as
+     * another packet
+     * 
+     * @param shared the packet whose hits are shared
+     */
+    public RayPacket(RayPacket shared) {
+        this(shared.triangle, shared.distance, shared.u, shared.v,
+            shared.instance);
+    }
+
+    private RayPacket(int[] triangle, double[] distance, double[] u,
+            double[] v, Instance[] instance) {
+        dx = new double[MAX_SIZE];
+        dy = new double[MAX_SIZE];
+        dz = new double[MAX_SIZE];
+        ix = new double[MAX_SIZE];
+        iy = new double[MAX_SIZE];
+        iz = new double[MAX_SIZE];
+        this.triangle = triangle;
+        this.distance = distance;
+        this.u = u;
+        this.v = v;
+        this.instance = instance;
+    }
+
+    /**
+     * Forget the closest hit of every ray
+     */
+    public void reset() {
+        for (int i = 0; i < size; i++) {
+            triangle[i] = -1;
+            distance[i] = Double.MAX_VALUE;
+            instance[i] = null;
+        }
+    }
+
+    /**
+     * Work out the inverse directions and the range of directions once all
+     * the rays are in place
+     */
+    public void prepare() {
+
+        isCoherent = 0 < size;
+
+        for (int i = 0; i < size; i++) {
+            ix[i] = 1.0 / dx[i];
+            iy[i] = 1.0 / dy[i];
+            iz[i] = 1.0 / dz[i];
+        }
+
+        range(ix, 0);
+        range(iy, 1);
+        range(iz, 2);
+    }
+
+    private void range(double[] inverse, int axis) {
+
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, inverse[i]);
+            max = Math.max(max, inverse[i]);
+        }
+
+        /* a ray parallel to the axis or mixed signs leave nothing to bound */
+        if (min < 0 && 0 < max || Double.isInfinite(min) || 
+                Double.isInfinite(max))
+            isCoherent = false;
+
+        inverseMin[axis] = min;
+        inverseMax[axis] = max;
+    }
+
+    /**
+     * Tell if the rays all head the same way along every axis
+     * <p>
+     * Only then can the packet be culled as a whole, so other packets are
+     * better off traced one ray at a time.
+     * 
+     * @return true if the packet is coherent
+     */
+    public boolean isCoherent() {
+        return isCoherent;
+    }
+
+    /**
+     * Find the first ray from some index on that hits a box before its
+     * closest hit
+     * <p>
+     * The ray at {@code first} is tried on its own, then the whole packet
+     * is culled by interval arithmetic, and only then are the rest of the
+     * rays tried one by one.
+     * 
+     * @param bounds the array holding the box
+     * @param b      where the box starts in that array
+     * @param first  the first ray that is still of interest
+     * @param last   the last ray that is still of interest
+     * @param state  the traversal state of the calling thread
+     * @return the index of the first ray that hits the box, past 
+     *         {@code last} if none does
+     */
+    public int firstHit(double[] bounds, int b, int first, int last, 
+            Traversal state) {
+
+        state.nodeTests++;
+        if (hits(bounds, b, first))
+            return first;
+
+        if (isCoherent && misses(bounds, b))
+            return last + 1;
+
+        for (int i = first + 1; i <= last; i++) {
+            state.nodeTests++;
+            if (hits(bounds, b, i))
+                return i;
+        }
+
+        return last + 1;
+    }
+
+    /**
+     * Find the last ray up to some index that hits a box before its closest
+     * hit
+     * <p>
+     * Together with {@link #firstHit(double[], int, int, int, Traversal)}
+     * this narrows the rays of interest below a node to a range. Rays put in
+     * the packet in Morton order keep that range to a small block of pixels.
+     * 
+     * @param bounds the array holding the box
+     * @param b      where the box starts in that array
+     * @param first  a ray known to hit the box
+     * @param last   the last ray that is still of interest
+     * @param state  the traversal state of the calling thread
+     * @return the index of the last ray that hits the box
+     */
+    public int lastHit(double[] bounds, int b, int first, int last, 
+            Traversal state) {
+
+        for (int i = last; first < i; i--) {
+            state.nodeTests++;
+            if (hits(bounds, b, i))
+                return i;
+        }
+
+        return first;
+    }
+
+    /**
+     * Test one ray against a box packed as min x, y, z followed by
+     * max x, y, z, ignoring boxes beyond its closest hit
+     * 
+     * @param box the array holding the box
+     * @param b   where the box starts in that array
+     * @param i   the ray
+     * @return true if the ray reaches the box before its closest hit
+     */
+    public boolean hits(double[] box, int b, int i) {
+
+        double t1 = (box[b    ] - ox) * ix[i];
+        double t2 = (box[b + 3] - ox) * ix[i];
+        double t3 = (box[b + 1] - oy) * iy[i];
+        double t4 = (box[b + 4] - oy) * iy[i];
+        double t5 = (box[b + 2] - oz) * iz[i];
+        double t6 = (box[b + 5] - oz) * iz[i];
+
+        double tmin = Math.max(Math.max(Math.min(t1, t2), Math.min(t3, t4)), 
+                Math.min(t5, t6));
+        double tmax = Math.min(Math.min(Math.max(t1, t2), Math.max(t3, t4)), 
+                Math.max(t5, t6));
+
+        return 0 <= tmax && tmin <= tmax && tmin <= distance[i];
+    }
+
+    /**
+     * Tell if no ray in the packet can hit a box
+     * <p>
+     * Along each axis the distance to a plane is its offset from the origin
+     * times the inverse direction, so over the whole packet it lies between
+     * the offset times the smallest and the largest inverse direction. If
+     * even the earliest possible entry is after the latest possible exit,
+     * every ray misses.
+     */
+    private boolean misses(double[] box, int b) {
+
+        double enter = -Double.MAX_VALUE, exit = Double.MAX_VALUE;
+
+        for (int k = 0; k < 3; k++) {
+
+            double o = k == 0 ? ox : k == 1 ? oy : oz;
+            double lo = inverseMin[k], hi = inverseMax[k];
+            boolean positive = 0 < lo;
+            double near = (positive ? box[b + k] : box[b + k + 3]) - o;
+            double far = (positive ? box[b + k + 3] : box[b + k]) - o;
+
+            enter = Math.max(enter, 0 <= near ? near * lo : near * hi);
+            exit = Math.min(exit, 0 <= far ? far * hi : far * lo);
+        }
+
+        return exit < enter || exit < 0;
+    }
+
+    /**
+     * Trace some of the rays one at a time through a structure
+     * 
+     * @param accelerator the structure
+     * @param first       the first ray to trace
+     * @param last        the last ray to trace
+     * @param state       the traversal state of the calling thread
+     */
+    public void intersectEach(Accelerator accelerator, int first, int last, 
+            Traversal state) {
+
+        Vector3 origin = state.objectOrigin;
+        Vector3 ray = state.objectRay;
+        origin.set(ox, oy, oz);
+
+        for (int i = first; i <= last; i++) {
+            ray.set(dx[i], dy[i], dz[i]);
+            state.triangle = triangle[i];
+            state.distance = distance[i];
+            state.u = u[i];
+            state.v = v[i];
+            accelerator.intersect(origin, ray, state);
+            triangle[i] = state.triangle;
+            distance[i] = state.distance;
+            u[i] = state.u;
+            v[i] = state.v;
+        }
+    }
+
+    /**
+     * Remember the distance of every hit so that {@link #changed(int)} can
+     * tell which rays found a closer one since
+     */
+    public void save() {
+        System.arraycopy(distance, 0, saved, 0, size);
+    }
+
+    /**
+     * Tell if a ray has found a closer hit since {@link #save()}
+     * 
+     * @param i the ray
+     * @return true if the ray has a closer hit
+     */
+    public boolean changed(int i) {
+        return distance[i] != saved[i];
+    }
+
+}
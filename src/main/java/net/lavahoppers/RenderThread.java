@@ -61,6 +61,35 @@ public class RenderThread extends Thread {
      */
     @Override
     public void run() {
+
+        int threads = PathTracer.isMultithreadRender ? 
+            Runtime.getRuntime().availableProcessors() : 1;
+
+        if (PathTracer.isWavefront) {
+            new WavefrontIntegrator(PathTracer.scene, threads)
+                .render(x, y, width, height);
+            return;
+        }
+
+        if (PathTracer.isAdaptive) {
+            new AdaptiveRenderer(threads).render(x, y, width, height);
+            return;
+        }
+
+        int size = PathTracer.packetSize;
+
+        /* camera rays are traced in square packets when asked for */
+        if (0 < size) {
+            for (int y = this.y; y < this.y + this.height; y += size) {
+                for (int x = this.x; x < this.x + this.width; x += size) {
+                    PathTracer.renderBlock(x, y, 
+                        Math.min(size, this.x + this.width - x), 
+                        Math.min(size, this.y + this.height - y));
+                }
+            }
+            return;
+        }
+
         for (int y = this.y; y < this.y + this.height; y++) {
 			for (int x = this.x; x < this.x + this.width; x++){ 
                 PathTracer.renderPixel(x, y);
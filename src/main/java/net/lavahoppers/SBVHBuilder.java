@@ -0,0 +1,537 @@
+package net.lavahoppers;
+
+/*
+ * SBVHBuilder.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * A builder for spatial split bounding volume hierarchies.
+ * <p>
+ * Besides the object splits of the surface area heuristic, every node may
+ * also be cut by a plane through space. Triangles that cross the plane are
+ * referenced from both children, each with a box clipped to its own side. This
+ * removes most of the overlap that long, thin triangles cause between sibling
+ * boxes at the price of some duplicated references.
+ * <p>
+ * The tree is built as an ordinary {@code AABB} tree, so it can be flattened
+ * or collapsed like any other.
+ * 
+ * @see <a href=https://www.nvidia.com/docs/IO/77714/sbvh.pdf>
+ *      Spatial Splits in Bounding Volume Hierarchies</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class SBVHBuilder {
+
+    /* 
+     * spatial splits are only tried in nodes whose object split children
+     * overlap by at least this fraction of the surface area of the root 
+     */
+    public static final double OVERLAP_THRESHOLD = 1e-5;
+
+    /**
+     * A triangle as seen by one node, with a box that may be clipped smaller
+     * than the triangle itself
+     */
+    private static class Reference {
+
+        final Triangle tri;
+        final double[] box = new double[6];
+
+        Reference(Triangle tri) {
+            this.tri = tri;
+        }
+
+        double center(int axis) {
+            return (box[axis] + box[axis + 3]) * 0.5;
+        }
+
+    }
+
+    /**
+     * A node waiting to be split together with the references it holds
+     */
+    private static class Job {
+
+        final AABB node;
+        final ArrayList<Reference> refs;
+
+        Job(AABB node, ArrayList<Reference> refs) {
+            this.node = node;
+            this.refs = refs;
+        }
+
+    }
+
+    private final int bins = AABB.SAH_BINS;
+    private final int maxReferences;
+    private int references;
+    private double rootArea;
+
+    /* scratch space for the binning, reused by every node */
+    private final int[] binCount = new int[bins];
+    private final int[] entries = new int[bins];
+    private final int[] exits = new int[bins];
+    private final double[] binBounds = new double[bins * 6];
+    private final double[] rightBounds = new double[bins * 6];
+    private final double[] sweep = new double[6];
+    private final double[] clipped = new double[6];
+    private final double[] polygon = new double[3 * 9];
+    private final double[] scratch = new double[3 * 9];
+
+    /* the best split found for the current node */
+    private double bestCost;
+    private int bestAxis;
+    private int bestPlane;
+    private boolean bestIsSpatial;
+    private final double[] bestLeft = new double[6];
+    private final double[] bestRight = new double[6];
+
+    private SBVHBuilder(int triangles, double duplicationLimit) {
+        this.references = triangles;
+        this.maxReferences = 
+            (int)Math.min(Integer.MAX_VALUE, triangles * (1.0 + duplicationLimit));
+    }
+
+    /**
+     * Build a spatial split hierarchy over some triangles
+     * 
+     * @param triangles        the triangles
+     * @param duplicationLimit how many extra references spatial splits may
+     *                         create, as a fraction of the triangle count. 
+     *                         {@code 0.3} allows at most 30% more references
+     *                         than triangles and {@code 0} makes this an 
+     *                         ordinary SAH build
+     * @return the root of the hierarchy
+     */
+    public static AABB build(ArrayList<Triangle> triangles, 
+            double duplicationLimit) {
+
+        SBVHBuilder builder = new SBVHBuilder(triangles.size(), 
+            duplicationLimit);
+
+        ArrayList<Reference> refs = new ArrayList<Reference>(triangles.size());
+        for (Triangle tri : triangles) {
+            Reference ref = new Reference(tri);
+            resetBounds(ref.box, 0);
+            growBounds(ref.box, 0, tri.a);
+            growBounds(ref.box, 0, tri.b);
+            growBounds(ref.box, 0, tri.c);
+            refs.add(ref);
+        }
+
+        AABB root = new AABB();
+        double[] rootBox = bounds(refs);
+        builder.rootArea = area(rootBox, 0);
+
+        LinkedList<Job> queue = new LinkedList<Job>();
+        queue.add(new Job(root, refs));
+
+        while (0 < queue.size())
+            builder.split(queue.pop(), queue);
+
+        return root;
+    }
+
+    /**
+     * Split the node of a job if it is worth it, or make it a leaf
+     * 
+     * @param job   the node and its references
+     * @param queue where the jobs for the children are put
+     */
+    private void split(Job job, LinkedList<Job> queue) {
+
+        ArrayList<Reference> refs = job.refs;
+        int n = refs.size();
+        double[] box = bounds(refs);
+
+        bestCost = Double.MAX_VALUE;
+        bestAxis = -1;
+
+        if (1 < n) {
+            findObjectSplit(refs);
+
+            if (bestAxis != -1 && references < maxReferences) {
+                double overlap = overlapArea(bestLeft, bestRight);
+                if (OVERLAP_THRESHOLD < overlap / rootArea)
+                    findSpatialSplit(refs, box);
+            }
+        }
+
+        double leafCost = AABB.SAH_INTERSECTION_COST * n;
+        double splitCost = AABB.SAH_TRAVERSAL_COST + 
+            AABB.SAH_INTERSECTION_COST * bestCost / area(box, 0);
+
+        ArrayList<Reference> left = new ArrayList<Reference>();
+        ArrayList<Reference> right = new ArrayList<Reference>();
+
+        if (bestAxis != -1 && splitCost < leafCost) {
+            if (bestIsSpatial)
+                partitionSpatial(refs, box, left, right);
+            else
+                partitionObject(refs, left, right);
+        }
+
+        if (left.size() == 0 || right.size() == 0) {
+            makeLeaf(job.node, refs, box);
+            return;
+        }
+
+        AABB leftChild = new AABB();
+        AABB rightChild = new AABB();
+        setBounds(job.node, box);
+        job.node.setChildren(leftChild, rightChild);
+        queue.add(new Job(leftChild, left));
+        queue.add(new Job(rightChild, right));
+    }
+
+    /**
+     * Find the cheapest binned object split of some references
+     */
+    private void findObjectSplit(ArrayList<Reference> refs) {
+
+        int n = refs.size();
+
+        for (int axis = 0; axis < 3; axis++) {
+
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (Reference ref : refs) {
+                min = Math.min(min, ref.center(axis));
+                max = Math.max(max, ref.center(axis));
+            }
+            if (max <= min)
+                continue;
+
+            for (int i = 0; i < bins; i++) {
+                binCount[i] = 0;
+                resetBounds(binBounds, i);
+            }
+
+            double scale = bins / (max - min);
+            for (Reference ref : refs) {
+                int bin = bin(ref.center(axis), min, scale);
+                binCount[bin]++;
+                mergeBounds(binBounds, bin, ref.box, 0);
+            }
+
+            sweepRight();
+
+            resetBounds(sweep, 0);
+            int leftCount = 0;
+            for (int i = 0; i < bins - 1; i++) {
+                mergeBounds(sweep, 0, binBounds, i);
+                leftCount += binCount[i];
+                int rightCount = n - leftCount;
+                if (leftCount == 0 || rightCount == 0)
+                    continue;
+                double cost = area(sweep, 0) * leftCount + 
+                    area(rightBounds, i + 1) * rightCount;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestPlane = i;
+                    bestIsSpatial = false;
+                    System.arraycopy(sweep, 0, bestLeft, 0, 6);
+                    System.arraycopy(rightBounds, (i + 1) * 6, bestRight, 0, 6);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Find the cheapest binned spatial split of some references, replacing
+     * the best object split if it is cheaper and stays within the
+     * duplication limit
+     */
+    private void findSpatialSplit(ArrayList<Reference> refs, double[] box) {
+
+        int n = refs.size();
+
+        for (int axis = 0; axis < 3; axis++) {
+
+            double min = box[axis], max = box[axis + 3];
+            if (max <= min)
+                continue;
+
+            for (int i = 0; i < bins; i++) {
+                entries[i] = exits[i] = 0;
+                resetBounds(binBounds, i);
+            }
+
+            double width = (max - min) / bins;
+            double scale = 1.0 / width;
+            for (Reference ref : refs) {
+                int first = bin(ref.box[axis], min, scale);
+                int last = bin(ref.box[axis + 3], min, scale);
+                for (int i = first; i <= last; i++) {
+                    double lo = i == first ? ref.box[axis] : min + width * i;
+                    double hi = i == last ? ref.box[axis + 3] : min + width * (i + 1);
+                    if (clip(ref, axis, lo, hi, clipped))
+                        mergeBounds(binBounds, i, clipped, 0);
+                }
+                entries[first]++;
+                exits[last]++;
+            }
+
+            sweepRight();
+
+            resetBounds(sweep, 0);
+            int leftCount = 0;
+            int rightCount = n;
+            for (int i = 0; i < bins - 1; i++) {
+                mergeBounds(sweep, 0, binBounds, i);
+                leftCount += entries[i];
+                rightCount -= exits[i];
+                if (leftCount == 0 || rightCount == 0)
+                    continue;
+                if (maxReferences < references + leftCount + rightCount - n)
+                    continue;
+                double cost = area(sweep, 0) * leftCount + 
+                    area(rightBounds, i + 1) * rightCount;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestPlane = i;
+                    bestIsSpatial = true;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Split references into two lists by the bin their center falls in
+     */
+    private void partitionObject(ArrayList<Reference> refs, 
+            ArrayList<Reference> left, ArrayList<Reference> right) {
+
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (Reference ref : refs) {
+            min = Math.min(min, ref.center(bestAxis));
+            max = Math.max(max, ref.center(bestAxis));
+        }
+
+        double scale = bins / (max - min);
+        for (Reference ref : refs)
+            if (bin(ref.center(bestAxis), min, scale) <= bestPlane)
+                left.add(ref);
+            else
+                right.add(ref);
+    }
+
+    /**
+     * Split references into two lists by a plane through space, clipping and
+     * duplicating the ones that cross it
+     */
+    private void partitionSpatial(ArrayList<Reference> refs, double[] box, 
+            ArrayList<Reference> left, ArrayList<Reference> right) {
+
+        int axis = bestAxis;
+        double min = box[axis];
+        double scale = bins / (box[axis + 3] - min);
+        double plane = min + (bestPlane + 1) / scale;
+
+        for (Reference ref : refs) {
+
+            int first = bin(ref.box[axis], min, scale);
+            int last = bin(ref.box[axis + 3], min, scale);
+
+            if (last <= bestPlane) {
+                left.add(ref);
+            } else if (bestPlane < first) {
+                right.add(ref);
+            } else {
+                Reference l = new Reference(ref.tri);
+                Reference r = new Reference(ref.tri);
+                boolean isLeft = clip(ref, axis, ref.box[axis], plane, l.box);
+                boolean isRight = clip(ref, axis, plane, ref.box[axis + 3], r.box);
+                if (isLeft)
+                    left.add(l);
+                if (isRight)
+                    right.add(r);
+                if (isLeft && isRight)
+                    references++;
+            }
+        }
+
+    }
+
+    /**
+     * Turn a node into a leaf holding the triangles of some references
+     */
+    private void makeLeaf(AABB node, ArrayList<Reference> refs, double[] box) {
+        for (Reference ref : refs)
+            node.add(ref.tri);
+        setBounds(node, box);
+    }
+
+    /**
+     * Get the box of the part of a referenced triangle between two planes
+     * <p>
+     * The triangle is clipped as a polygon against both planes and the box
+     * around what is left is then clipped to the box of the reference.
+     * 
+     * @param ref  the reference
+     * @param axis the axis the planes are perpendicular to
+     * @param lo   the lower plane
+     * @param hi   the upper plane
+     * @param out  overridden with the clipped box
+     * @return false if nothing of the triangle is between the planes
+     */
+    private boolean clip(Reference ref, int axis, double lo, double hi, 
+            double[] out) {
+
+        Triangle tri = ref.tri;
+        double[] p = polygon;
+        p[0] = tri.a.getX(); p[1] = tri.a.getY(); p[2] = tri.a.getZ();
+        p[3] = tri.b.getX(); p[4] = tri.b.getY(); p[5] = tri.b.getZ();
+        p[6] = tri.c.getX(); p[7] = tri.c.getY(); p[8] = tri.c.getZ();
+
+        int count = clipPlane(polygon, 3, scratch, axis, lo, 1.0);
+        count = clipPlane(scratch, count, polygon, axis, hi, -1.0);
+
+        if (count == 0)
+            return false;
+
+        resetBounds(out, 0);
+        for (int i = 0; i < count; i++)
+            for (int k = 0; k < 3; k++) {
+                out[k] = Math.min(out[k], polygon[i * 3 + k]);
+                out[k + 3] = Math.max(out[k + 3], polygon[i * 3 + k]);
+            }
+
+        /* stay inside the reference and exactly between the planes */
+        for (int k = 0; k < 3; k++) {
+            out[k] = Math.max(out[k], ref.box[k]);
+            out[k + 3] = Math.min(out[k + 3], ref.box[k + 3]);
+        }
+        out[axis] = Math.max(out[axis], lo);
+        out[axis + 3] = Math.min(out[axis + 3], hi);
+
+        return out[0] <= out[3] && out[1] <= out[4] && out[2] <= out[5];
+    }
+
+    /**
+     * Clip a polygon against one axis aligned plane
+     * 
+     * @see <a href=https://en.wikipedia.org/wiki/Sutherland%E2%80%93Hodgman_algorithm>
+     *      Sutherland-Hodgman algorithm</a>
+     * @param in    the points of the polygon packed x, y, z
+     * @param count the number of points
+     * @param out   overridden with the points of the clipped polygon
+     * @param axis  the axis the plane is perpendicular to
+     * @param plane where the plane crosses the axis
+     * @param side  1 to keep what is above the plane, -1 for below
+     * @return the number of points in the clipped polygon
+     */
+    private static int clipPlane(double[] in, int count, double[] out, 
+            int axis, double plane, double side) {
+
+        int written = 0;
+
+        for (int i = 0; i < count; i++) {
+
+            int j = (i + 1) % count;
+            double di = (in[i * 3 + axis] - plane) * side;
+            double dj = (in[j * 3 + axis] - plane) * side;
+
+            if (0 <= di) {
+                System.arraycopy(in, i * 3, out, written * 3, 3);
+                written++;
+            }
+
+            if ((0 <= di) != (0 <= dj)) {
+                double t = di / (di - dj);
+                for (int k = 0; k < 3; k++)
+                    out[written * 3 + k] = in[i * 3 + k] + 
+                        (in[j * 3 + k] - in[i * 3 + k]) * t;
+                out[written * 3 + axis] = plane;
+                written++;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Fill in the box of everything right of each bin
+     */
+    private void sweepRight() {
+        resetBounds(sweep, 0);
+        for (int i = bins - 1; 0 < i; i--) {
+            mergeBounds(sweep, 0, binBounds, i);
+            System.arraycopy(sweep, 0, rightBounds, i * 6, 6);
+        }
+    }
+
+    private int bin(double c, double min, double scale) {
+        int bin = (int)((c - min) * scale);
+        return bin < 0 ? 0 : bin < bins ? bin : bins - 1;
+    }
+
+    private static double[] bounds(ArrayList<Reference> refs) {
+        double[] box = new double[6];
+        resetBounds(box, 0);
+        for (Reference ref : refs)
+            mergeBounds(box, 0, ref.box, 0);
+        return box;
+    }
+
+    private static void setBounds(AABB node, double[] box) {
+        node.min = new Vector3(box[0], box[1], box[2]);
+        node.max = new Vector3(box[3], box[4], box[5]);
+    }
+
+    private static double overlapArea(double[] a, double[] b) {
+        double[] overlap = new double[6];
+        for (int k = 0; k < 3; k++) {
+            overlap[k] = Math.max(a[k], b[k]);
+            overlap[k + 3] = Math.min(a[k + 3], b[k + 3]);
+            if (overlap[k + 3] < overlap[k])
+                return 0;
+        }
+        return area(overlap, 0);
+    }
+
+    /*
+     * The helpers below work on boxes packed six doubles at a time as min
+     * x, y, z followed by max x, y, z.
+     */
+
+    private static void resetBounds(double[] b, int i) {
+        b[i * 6] = b[i * 6 + 1] = b[i * 6 + 2] = Double.MAX_VALUE;
+        b[i * 6 + 3] = b[i * 6 + 4] = b[i * 6 + 5] = -Double.MAX_VALUE;
+    }
+
+    private static void growBounds(double[] b, int i, Vector3 v) {
+        b[i * 6    ] = Math.min(b[i * 6    ], v.getX());
+        b[i * 6 + 1] = Math.min(b[i * 6 + 1], v.getY());
+        b[i * 6 + 2] = Math.min(b[i * 6 + 2], v.getZ());
+        b[i * 6 + 3] = Math.max(b[i * 6 + 3], v.getX());
+        b[i * 6 + 4] = Math.max(b[i * 6 + 4], v.getY());
+        b[i * 6 + 5] = Math.max(b[i * 6 + 5], v.getZ());
+    }
+
+    private static void mergeBounds(double[] dst, int i, double[] src, int j) {
+        for (int k = 0; k < 3; k++) {
+            dst[i * 6 + k] = Math.min(dst[i * 6 + k], src[j * 6 + k]);
+            dst[i * 6 + k + 3] = Math.max(dst[i * 6 + k + 3], src[j * 6 + k + 3]);
+        }
+    }
+
+    private static double area(double[] b, int i) {
+        if (b[i * 6 + 3] < b[i * 6])
+            return 0;
+        double x = b[i * 6 + 3] - b[i * 6];
+        double y = b[i * 6 + 4] - b[i * 6 + 1];
+        double z = b[i * 6 + 5] - b[i * 6 + 2];
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+}
@@ -0,0 +1,57 @@
+package net.lavahoppers;
+
+/*
+ * Sampler.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A source of the numbers a sample of a pixel is made from.
+ * <p>
+ * Each sample of each pixel draws its numbers one after another: the first
+ * two place the camera ray within the pixel and the rest pick how the path
+ * scatters. The numbers only depend on the pixel, the sample and how many
+ * numbers came before, never on the thread or on what was rendered earlier,
+ * so any pixel can be rendered again on its own and come out the same bit
+ * for bit.
+ * <p>
+ * Every thread keeps its own sampler in its {@link ShadingState}, so render
+ * threads never wait on each other for random numbers.
+ * 
+ * @see RandomSampler
+ * @see SobolSampler
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+interface Sampler {
+
+    /** the number of numbers a camera ray draws */
+    int CAMERA_DIMENSIONS = 2;
+
+    /**
+     * Start drawing the numbers of a sample
+     * 
+     * @param x         the x location of the pixel
+     * @param y         the y location of the pixel
+     * @param sample    the index of the sample within the pixel
+     * @param dimension how many numbers of the sample were already drawn,
+     *                  0 to start from the beginning
+     */
+    void start(int x, int y, int sample, int dimension);
+
+    /**
+     * Draw the next number of the sample
+     * 
+     * @return a number in [0, 1)
+     */
+    double next();
+
+    /**
+     * Get how many numbers of the current sample were drawn so far
+     * 
+     * @return the index of the next number
+     */
+    int dimension();
+
+}
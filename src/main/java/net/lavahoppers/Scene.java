@@ -8,15 +8,9 @@ package net.lavahoppers;
 
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 
-import javax.imageio.ImageIO;
-
-import java.io.File;
 import java.io.IOException;
 
-import java.awt.image.BufferedImage;
-
 
 /**
  * Class for containing all the 3D elements of a scene
@@ -29,128 +23,255 @@ import java.awt.image.BufferedImage;
  */
 public class Scene {
     
-    public ArrayList<Mesh> meshes;
-    public static BufferedImage HDRI = null;
-    public static BufferedImage exr = null;
+    public ArrayList<Instance> instances;
+    private TopLevelBVH topLevel = null;
+
+    /* the light of the HDRI, decoded once into floats */
+    private static EnvironmentMap environmentMap = null;
+
+    /* where the light of the HDRI comes from, for picking directions */
+    private static EnvironmentDistribution environment = null;
 
     /**
      * Create a new scene
      */
     Scene() {
-        meshes = new ArrayList<Mesh>();
+        instances = new ArrayList<Instance>();
         try {
-            HDRI = ImageIO.read(new File(PathTracer.hdriFileName));
+            environmentMap = EnvironmentMap.read(PathTracer.hdriFileName, 
+                PathTracer.isEnvironmentFiltered);
+            environment = new EnvironmentDistribution(
+                environmentMap.getLuminance(), environmentMap.getWidth(), 
+                environmentMap.getHeight());
         } catch (IOException e) {
             System.err.println("Couldn't read HDRI \"" + 
-                PathTracer.hdriFileName + "\".");
+                PathTracer.hdriFileName + "\": " + e.getMessage());
                 System.exit(1);
         }
     }
 
+    /**
+     * Add a mesh to the scene as it is
+     * 
+     * @param mesh the mesh
+     */
+    public void add(Mesh mesh) {
+        add(new Instance(mesh));
+    }
+
+    /**
+     * Add an instance of a mesh to the scene
+     * <p>
+     * {@link #build()} has to be called again before rendering.
+     * 
+     * @param instance the instance
+     */
+    public void add(Instance instance) {
+        instances.add(instance);
+        topLevel = null;
+    }
+
+    /**
+     * Build the top level hierarchy over every instance in the scene
+     * <p>
+     * This has to be called once all the instances have been added and before
+     * any ray is traced, and again after any mesh has been refitted.
+     * 
+     * @see Mesh#refit()
+     */
+    public void build() {
+        for (Instance instance : instances)
+            instance.updateBounds();
+        topLevel = new TopLevelBVH(instances);
+    }
+
     /**
      * Determine if a ray intersects with elements of the scene
      * <p>
      * This funciton is the core of path tracing and improving it's speed will
      * significantly improve render time
      * 
-     * @param origin  the origin point of the ray
-     * @param ray     the ray normalized
-     * @param ptOut   the Vector3 to be overriden to the point of intersection
-     * @param normOut the Vector3 to be overridden to the normal of the intersection
-     * @param rgbOut  the RGB value out
-     * @return the distance from the origin to the point of intersection, -1 if no
-     *         intersection
+     * @param origin the origin point of the ray
+     * @param ray    the ray normalized
+     * @param hit    the record to be overridden with the closest hit, or
+     *               with a miss
+     * @return true if the ray hit anything, false otherwise
+     * @see Scene#occluded(Vector3, Vector3, double)
      */
-    public boolean intersect(Vector3 origin, Vector3 ray, Vector3 ptOut, Vector3 normOut, Vector3 rgbOut) {
+    public boolean intersect(Vector3 origin, Vector3 ray, HitRecord hit) {
 
-        Triangle closeTri = null;
-        double   closeDist = 0;
+        Traversal state = Traversal.get();
 
-        LinkedList<AABB> AABBQueue = new LinkedList<AABB>();
-        Vector3 rayInv = ray.reciprocal();
+        if (!intersect(origin, ray, state)) {
+            hit.miss();
+            return false;
+        }
 
-        for (Mesh mesh : meshes) {
+        hit.set(origin.getX(), origin.getY(), origin.getZ(), 
+            ray.getX(), ray.getY(), ray.getZ(), state.triangle, 
+            state.distance, state.u, state.v, state.instance);
 
-            AABBQueue.add(mesh.getRoot());
+        return true;
 
-            while (0 < AABBQueue.size()) {
+    }
 
-                AABB current = AABBQueue.pop();
+    /**
+     * Find the closest hit along a ray and leave it in the traversal state
+     * <p>
+     * This is for callers that keep their own records of hits and only want
+     * the triangle, distance, barycentric coordinates and instance.
+     * 
+     * @param origin the origin point of the ray
+     * @param ray    the ray normalized
+     * @param state  the traversal state of the calling thread, overridden
+     *               with the closest hit
+     * @return true if the ray hit anything, false otherwise
+     * @see HitRecord#set(double, double, double, double, double, double, 
+     *      int, double, double, double, Instance)
+     */
+    public boolean intersect(Vector3 origin, Vector3 ray, Traversal state) {
 
-                double distance = current.intersects(origin, ray, rayInv);
+        state.reset();
+        state.rays++;
 
-                if (distance == -1)
-                    continue;
+        topLevel.intersect(origin, ray, state);
 
-                if (closeTri == null || distance < closeDist) {
-                    if (current.getLeftChild() != null)
-                        AABBQueue.add(current.getLeftChild());
-                    if (current.getRightChild() != null)
-                        AABBQueue.add(current.getRightChild());
-                }
+        return state.triangle != -1;
+    }
 
-                if (!current.isLeafNode())
-                    continue;
+    /**
+     * Find the closest hit of every ray in a packet
+     * <p>
+     * The rays have to share an origin. Coherent packets, like camera rays
+     * through a small block of pixels, walk the hierarchies together, which
+     * saves most of the box tests. The hits are read back with
+     * {@link #getHit(RayPacket, int, HitRecord)}.
+     * 
+     * @param packet the rays, with their origin and directions filled in
+     * @see Scene#intersect(Vector3, Vector3, HitRecord)
+     */
+    public void intersect(RayPacket packet) {
 
-                for (Triangle tri : current.getLeaves()) {
+        Traversal state = Traversal.get();
+        state.rays += packet.size;
 
-                    distance = tri.intersects(origin, ray);
+        packet.reset();
+        packet.prepare();
+        topLevel.intersect(packet, state);
+    }
 
-                    if (distance == -1)
-                        continue;
+    /**
+     * Read back the hit of one ray of a packet
+     * 
+     * @param packet the packet, after it has been traced
+     * @param i      the ray
+     * @param hit    the record to be overridden with the closest hit of the
+     *               ray, or with a miss
+     * @return true if the ray hit anything, false otherwise
+     * @see Scene#intersect(RayPacket)
+     */
+    public boolean getHit(RayPacket packet, int i, HitRecord hit) {
 
-                    if (closeTri == null || distance < closeDist) {
-                        closeTri = tri;
-                        closeDist = distance;
-                    }  
-                    
-                }
+        if (packet.triangle[i] == -1) {
+            hit.miss();
+            return false;
+        }
 
-            }
+        hit.set(packet.ox, packet.oy, packet.oz, 
+            packet.dx[i], packet.dy[i], packet.dz[i], packet.triangle[i], 
+            packet.distance[i], packet.u[i], packet.v[i], packet.instance[i]);
 
-        }
+        return true;
+    }
 
-        if (closeTri == null) {
-            return false;
+    /**
+     * Get the box around every instance in the scene as min x, y, z followed
+     * by max x, y, z
+     * 
+     * @return the bounds of the scene
+     */
+    public double[] getBounds() {
+
+        double[] bounds = { 
+            Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, 
+            -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE 
+        };
+
+        for (Instance instance : instances) {
+            double[] b = instance.getBounds();
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(bounds[k], b[k]);
+                bounds[k + 3] = Math.max(bounds[k + 3], b[k + 3]);
+            }
         }
-        if (ptOut != null)
-            ptOut.set(origin.copy().setScaleAdd(ray, closeDist));
-        if (normOut != null)
-            normOut.set(closeTri.norm());
-        if (rgbOut != null)
-            rgbOut.set(new Vector3(255, 255, 255));
-        
-        return true;
 
+        return bounds;
     }
 
-    
-    public static Vector3 getDirectionalLight(Vector3 direction) {
-
-        Vector3 horizontalComponent = direction.copy();
-        horizontalComponent.setY(0);
-        horizontalComponent.setNorm();
-        double horizontalDot = horizontalComponent.dot(Vector3.I_HAT);
-        double hAngle = Math.acos(horizontalDot);
-        if (horizontalComponent.getZ() > 0)
-            hAngle = Math.PI * 2 - hAngle;
+    /**
+     * Determine if anything in the scene blocks a ray before some distance
+     * <p>
+     * This is the query to use for shadow and visibility rays. It returns as
+     * soon as any triangle is found and never works out the hit point,
+     * normal or color.
+     * 
+     * @param origin      the origin point of the ray
+     * @param direction   the ray normalized
+     * @param maxDistance only hits closer than this distance count, for
+     *                    example the distance to a light
+     * @return true if the ray is blocked, false otherwise
+     */
+    public boolean occluded(Vector3 origin, Vector3 direction, double maxDistance) {
 
-        double verticalDot = direction.dot(Vector3.J_HAT);
-        double vAngle = Math.acos(verticalDot);
+        Traversal state = Traversal.get();
+        state.rays++;
 
-        double x = HDRI.getWidth() * (hAngle) / (Math.PI * 2) - 0.00001;
-        double y = HDRI.getHeight() * (vAngle / Math.PI);
+        return topLevel.occluded(origin, direction, maxDistance, state);
+    }
 
-        int color = HDRI.getRGB((int)x, (int)y);
-        //int mult = (color & 0xFFFFFF) == 0xFFFFFF ? 2 : 1;
+    /**
+     * Look up the light of the HDRI coming from a direction
+     * 
+     * @param direction the direction, normalized
+     * @param colorOut  the Vector3 to be overridden with the RGB value
+     * @return {@code colorOut}
+     */
+    public static Vector3 getDirectionalLight(Vector3 direction, 
+            Vector3 colorOut) {
+        return environmentMap.getLight(direction, colorOut);
+    }
 
-        return new Vector3(
-            (color >> 16) & 0xFF,  
-            (color >> 8 ) & 0xFF,
-            (color      ) & 0xFF 
-        //).scale(mult);
-        );
+    /**
+     * Pick a direction towards the HDRI, with bright directions more likely
+     * <p>
+     * This is what lets a path look for the light of a small, bright part
+     * of the HDRI, like the sun, directly instead of waiting to scatter
+     * into it.
+     * 
+     * @param u1           a number in [0, 1)
+     * @param u2           a number in [0, 1)
+     * @param directionOut the Vector3 to be overridden with the direction,
+     *                     normalized
+     * @return the density of the direction per unit solid angle, 0 if no
+     *         direction could be picked
+     * @see #getEnvironmentPdf(Vector3)
+     */
+    public static double sampleEnvironment(double u1, double u2, 
+            Vector3 directionOut) {
+        return environment.sample(u1, u2, directionOut);
+    }
 
+    /**
+     * Get the density {@link #sampleEnvironment(double, double, Vector3)} 
+     * picks a direction with
+     * 
+     * @param direction the direction, normalized
+     * @return the density of the direction per unit solid angle
+     */
+    public static double getEnvironmentPdf(Vector3 direction) {
+        int texel = environmentMap.getTexel(direction);
+        int width = environmentMap.getWidth();
+        return environment.pdf(texel % width, texel / width);
     }
 
 }
@@ -0,0 +1,112 @@
+package net.lavahoppers;
+
+/*
+ * ShadingState.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+
+/**
+ * Per-thread working memory for shading.
+ * <p>
+ * Every render thread owns one of these so that making camera rays,
+ * scattering and shading never allocate. Each level of the recursion of the
+ * rendering equation gets its own frame, holding the scattered ray, the hit
+ * it found and the light it brought back, so a deeper bounce never overwrites
+ * a shallower one that is still in use. The thread's sampler lives here too.
+ * 
+ * @see Traversal
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class ShadingState {
+
+    private static final ThreadLocal<ShadingState> LOCAL =
+        new ThreadLocal<ShadingState>() {
+            @Override
+            protected ShadingState initialValue() {
+                return new ShadingState();
+            }
+        };
+
+    /**
+     * The scratch space of one level of the recursion
+     */
+    static class Frame {
+
+        /** the ray scattered off the surface */
+        public final Vector3 ray = new Vector3();
+
+        /** the closest hit along the scattered ray */
+        public final HitRecord hit = new HitRecord();
+
+        /** the light brought back along the scattered ray */
+        public final Vector3 color = new Vector3();
+
+        /** the direction picked towards the HDRI */
+        public final Vector3 light = new Vector3();
+    }
+
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+
+    /** 
+     * the numbers the samples of this thread are made from, picked by the
+     * {@code sampler} setting 
+     */
+    public final Sampler sampler = "sobol".equals(PathTracer.samplerType) ?
+        new SobolSampler(PathTracer.samplerSeed) :
+        new RandomSampler(PathTracer.samplerSeed);
+
+    /** the origin of a ray that is not a camera ray */
+    public final Vector3 origin = new Vector3();
+
+    /** the ray being traced, usually the camera ray of the current sample */
+    public final Vector3 ray = new Vector3();
+
+    /** the closest hit along that ray */
+    public final HitRecord hit = new HitRecord();
+
+    /** the light of the current sample */
+    public final Vector3 sampleColor = new Vector3();
+
+    /** the sum of the samples of the current pixel */
+    public final Vector3 pixelColor = new Vector3();
+
+    /** the sums of the samples of the pixels of a packet */
+    public final Vector3[] pixelColors = new Vector3[RayPacket.MAX_SIZE];
+
+    /** the pixels of a packet in the order they were put in it */
+    public final int[] pixelX = new int[RayPacket.MAX_SIZE];
+    public final int[] pixelY = new int[RayPacket.MAX_SIZE];
+
+    private ShadingState() {
+        for (int i = 0; i < pixelColors.length; i++)
+            pixelColors[i] = new Vector3();
+    }
+
+    /**
+     * Get the shading state of the calling thread
+     * 
+     * @return the shading state of the calling thread
+     */
+    public static ShadingState get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Get the frame of one level of the recursion
+     * <p>
+     * Frames are only created the first time this thread goes that deep.
+     * 
+     * @param level the depth of the recursion, 0 at the first surface
+     * @return the frame
+     */
+    public Frame frame(int level) {
+        while (frames.size() <= level)
+            frames.add(new Frame());
+        return frames.get(level);
+    }
+
+}
@@ -0,0 +1,141 @@
+package net.lavahoppers;
+
+/*
+ * SobolSampler.java
+ * 
+ * 17 Oct 2026
+ */
+
+/**
+ * A quasi-Monte Carlo sampler built from the first two dimensions of the
+ * Sobol sequence, scrambled differently for every pixel.
+ * <p>
+ * Random numbers clump and leave gaps, so the error of an average of them
+ * only falls with the square root of the number of samples. The samples of a
+ * pixel here are instead spread out evenly: the numbers are taken two at a
+ * time, and every pair of a pixel's samples is a two dimensional Sobol point
+ * set, which puts exactly one point in every cell of any power of two grid
+ * over the square. That is the pair that places the camera ray in the pixel,
+ * then the pairs that pick each bounce.
+ * <p>
+ * Every pixel and every pair of dimensions gets its own Owen scramble, done
+ * with the hash of Laine and Karras as improved by Burley, and its own
+ * shuffle of the order of the samples. The scrambling keeps the points even
+ * but makes neighbouring pixels and different bounces independent of each
+ * other, so the error turns into noise instead of patterns. Like
+ * {@link RandomSampler} nothing is shared and every number only depends on
+ * the pixel, the sample and the dimension.
+ * <p>
+ * Powers of two for {@code rays-per-pixel} fill the grids completely and get
+ * the most out of it.
+ * 
+ * @see <a href=https://jcgt.org/published/0009/04/01/>Practical Hash-based
+ *      Owen Scrambling</a>
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class SobolSampler implements Sampler {
+
+    /* 2^64 divided by the golden ratio */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    /* the hash of the seed and pixel */
+    private long key;
+
+    private int sample;
+    private int dimension;
+
+    /* the dimension the sample was started at */
+    private int first;
+
+    /* the key and point index of the pair of dimensions being drawn */
+    private long pairKey;
+    private int index;
+
+    /**
+     * Create a sampler
+     * 
+     * @param seed picks one of many possible scrambles of the points
+     */
+    public SobolSampler(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Start drawing the numbers of a sample
+     * 
+     * @param x         the x location of the pixel
+     * @param y         the y location of the pixel
+     * @param sample    the index of the sample within the pixel
+     * @param dimension how many numbers of the sample were already drawn
+     */
+    public void start(int x, int y, int sample, int dimension) {
+        key = RandomSampler.mix(RandomSampler.mix(seed + GOLDEN * x) + y);
+        this.sample = sample;
+        this.dimension = dimension;
+        this.first = dimension;
+    }
+
+    /**
+     * Draw the next number of the sample
+     * 
+     * @return a number in [0, 1)
+     */
+    public double next() {
+
+        int pair = dimension >> 1;
+        int axis = dimension & 1;
+
+        /* which point of the set this sample gets, shared by both numbers
+        of the pair unless the sample was started halfway through it */
+        if (axis == 0 || dimension == first) {
+            pairKey = RandomSampler.mix(key + GOLDEN * (pair + 1));
+            index = scramble(sample, (int)pairKey);
+        }
+        dimension++;
+
+        int bits = axis == 0 ? Integer.reverse(index) : secondDimension(index);
+        bits = scramble(bits, (int)RandomSampler.mix(pairKey + axis + 1));
+
+        return (bits & 0xFFFFFFFFL) * 0x1.0p-32;
+    }
+
+    /**
+     * Get how many numbers of the current sample were drawn so far
+     * 
+     * @return the index of the next number
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Get the second dimension of the Sobol sequence as a 32 bit fraction
+     * <p>
+     * The first dimension is just the bits of the index reversed.
+     */
+    private static int secondDimension(int index) {
+        int result = 0;
+        for (int v = 1 << 31; index != 0; index >>>= 1, v ^= v >>> 1)
+            if ((index & 1) != 0)
+                result ^= v;
+        return result;
+    }
+
+    /**
+     * Owen scramble a 32 bit fraction: every bit is flipped or not depending
+     * on the seed and on all the bits above it
+     */
+    private static int scramble(int x, int seed) {
+        x = Integer.reverse(x);
+        x += seed;
+        x ^= x * 0x6c50b47c;
+        x ^= x * 0xb82f1e52;
+        x ^= x * 0xc7afe638;
+        x ^= x * 0x8d22f6e6;
+        return Integer.reverse(x);
+    }
+
+}
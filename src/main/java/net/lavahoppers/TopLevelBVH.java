@@ -0,0 +1,318 @@
+package net.lavahoppers;
+
+/*
+ * TopLevelBVH.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A bounding volume hierarchy over the instances of a scene.
+ * <p>
+ * This is the top level of a two level acceleration structure. Its leaves are
+ * instances, and each instance hands the ray on to the {@code LinearBVH} of
+ * its mesh. The nodes are packed the same way as in {@code LinearBVH} and are
+ * always walked nearest child first.
+ * 
+ * @see LinearBVH
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class TopLevelBVH {
+
+    /* the most instances that are put in one leaf */
+    private static final int LEAF_SIZE = 2;
+
+    /* min x, y, z then max x, y, z of every node */
+    private final double[] bounds;
+
+    /* 
+     * second child index and -1 - split axis for interior nodes, or instance
+     * offset and count for leaves 
+     */
+    private final int[] nodes;
+
+    private final Instance[] instances;
+
+    private int nodeCount = 0;
+    private int depth = 0;
+
+    /**
+     * Build a hierarchy over a list of instances
+     * 
+     * @param list the instances
+     */
+    public TopLevelBVH(ArrayList<Instance> list) {
+
+        instances = list.toArray(new Instance[list.size()]);
+
+        /* a binary tree with at most one instance per leaf */
+        int maxNodes = Math.max(1, 2 * instances.length - 1);
+        bounds = new double[maxNodes * 6];
+        nodes = new int[maxNodes * 2];
+
+        if (0 < instances.length)
+            depth = build(0, instances.length, 1);
+    }
+
+    /**
+     * Build the node for a range of instances and everything below it
+     * <p>
+     * The range is split at its median along the axis where the centers of
+     * its instances are spread the furthest.
+     * 
+     * @param start the first instance of the range
+     * @param end   one past the last instance of the range
+     * @param level the depth of the node
+     * @return the depth of the deepest node built
+     */
+    private int build(int start, int end, int level) {
+
+        int index = nodeCount++;
+
+        double[] center = new double[6];
+        Arrays.fill(bounds, index * 6, index * 6 + 3, Double.MAX_VALUE);
+        Arrays.fill(bounds, index * 6 + 3, index * 6 + 6, -Double.MAX_VALUE);
+        Arrays.fill(center, 0, 3, Double.MAX_VALUE);
+        Arrays.fill(center, 3, 6, -Double.MAX_VALUE);
+
+        for (int i = start; i < end; i++) {
+            double[] b = instances[i].getBounds();
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[index * 6 + axis] = 
+                    Math.min(bounds[index * 6 + axis], b[axis]);
+                bounds[index * 6 + axis + 3] = 
+                    Math.max(bounds[index * 6 + axis + 3], b[axis + 3]);
+                double c = b[axis] + b[axis + 3];
+                center[axis] = Math.min(center[axis], c);
+                center[axis + 3] = Math.max(center[axis + 3], c);
+            }
+        }
+
+        if (end - start <= LEAF_SIZE) {
+            nodes[index * 2] = start;
+            nodes[index * 2 + 1] = end - start;
+            return level;
+        }
+
+        double dx = center[3] - center[0];
+        double dy = center[4] - center[1];
+        double dz = center[5] - center[2];
+        final int axis = dx >= dy ? (dx >= dz ? 0 : 2) : (dy >= dz ? 1 : 2);
+
+        Arrays.sort(instances, start, end, new Comparator<Instance>() {
+            @Override
+            public int compare(Instance a, Instance b) {
+                return Double.compare(
+                    a.getBounds()[axis] + a.getBounds()[axis + 3], 
+                    b.getBounds()[axis] + b.getBounds()[axis + 3]
+                );
+            }
+        });
+
+        int mid = (start + end) / 2;
+
+        int left = build(start, mid, level + 1);
+        nodes[index * 2] = nodeCount;
+        nodes[index * 2 + 1] = -1 - axis;
+        int right = build(mid, end, level + 1);
+
+        return Math.max(left, right);
+    }
+
+    /**
+     * Find the closest triangle of any instance along a ray
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the unit vector of the ray's direction
+     * @param state  the traversal state of the calling thread
+     * @see LinearBVH#intersect(Vector3, Vector3, Traversal)
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+
+        if (instances.length == 0)
+            return;
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double ix = 1.0 / ray.getX(), iy = 1.0 / ray.getY(), 
+               iz = 1.0 / ray.getZ();
+        boolean negX = ix < 0, negY = iy < 0, negZ = iz < 0;
+
+        /* the meshes below use the other stack of the traversal state */
+        int[] stack = state.topStack(depth + 1);
+        int top = 0;
+        stack[top++] = 0;
+
+        while (0 < top) {
+
+            int node = stack[--top];
+
+            state.nodeTests++;
+            double distance = slabs(node, ox, oy, oz, ix, iy, iz);
+
+            if (distance == -1 || 
+                    (state.triangle != -1 && state.distance < distance))
+                continue;
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                int axis = -1 - count;
+                boolean neg = axis == 0 ? negX : axis == 1 ? negY : negZ;
+                if (neg) {
+                    stack[top++] = node + 1;
+                    stack[top++] = nodes[node * 2];
+                } else {
+                    stack[top++] = nodes[node * 2];
+                    stack[top++] = node + 1;
+                }
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            for (int i = offset; i < offset + count; i++)
+                instances[i].intersect(origin, ray, state);
+
+        }
+
+    }
+
+    /**
+     * Find the closest triangles of any instance along a packet of rays
+     * 
+     * @param packet the rays, in world space
+     * @param state  the traversal state of the calling thread
+     * @see LinearBVH#intersect(RayPacket, int, int, Traversal)
+     */
+    public void intersect(RayPacket packet, Traversal state) {
+
+        if (instances.length == 0 || packet.size == 0)
+            return;
+
+        /* node, first and last active ray triples */
+        int[] stack = state.topStack(3 * (depth + 1));
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = 0;
+        stack[top++] = packet.size - 1;
+
+        while (0 < top) {
+
+            int last = stack[--top];
+            int first = stack[--top];
+            int node = stack[--top];
+
+            first = packet.firstHit(bounds, node * 6, first, last, state);
+            if (last < first)
+                continue;
+            last = packet.lastHit(bounds, node * 6, first, last, state);
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                int axis = -1 - count;
+                double d = axis == 0 ? packet.dx[first] : 
+                    axis == 1 ? packet.dy[first] : packet.dz[first];
+                stack[top++] = d < 0 ? node + 1 : nodes[node * 2];
+                stack[top++] = first;
+                stack[top++] = last;
+                stack[top++] = d < 0 ? nodes[node * 2] : node + 1;
+                stack[top++] = first;
+                stack[top++] = last;
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            for (int i = offset; i < offset + count; i++)
+                instances[i].intersect(packet, first, last, state);
+
+        }
+
+    }
+
+    /**
+     * See if any instance blocks a ray before some distance
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the unit vector of the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     * @see LinearBVH#occluded(Vector3, Vector3, double, Traversal)
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+
+        if (instances.length == 0)
+            return false;
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double ix = 1.0 / ray.getX(), iy = 1.0 / ray.getY(), 
+               iz = 1.0 / ray.getZ();
+
+        int[] stack = state.topStack(depth + 1);
+        int top = 0;
+        stack[top++] = 0;
+
+        while (0 < top) {
+
+            int node = stack[--top];
+
+            state.nodeTests++;
+            double distance = slabs(node, ox, oy, oz, ix, iy, iz);
+
+            if (distance == -1 || maxDistance < distance)
+                continue;
+
+            int count = nodes[node * 2 + 1];
+
+            if (count < 0) {
+                stack[top++] = nodes[node * 2];
+                stack[top++] = node + 1;
+                continue;
+            }
+
+            int offset = nodes[node * 2];
+            for (int i = offset; i < offset + count; i++)
+                if (instances[i].occluded(origin, ray, maxDistance, state))
+                    return true;
+
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the distance to the box of a node
+     * 
+     * @see AABB#intersects(Vector3, Vector3, Vector3)
+     * @return the distance to the box, -1 if it is missed
+     */
+    private double slabs(int node, double ox, double oy, double oz, 
+            double ix, double iy, double iz) {
+
+        int b = node * 6;
+
+        double t1 = (bounds[b    ] - ox) * ix;
+        double t2 = (bounds[b + 3] - ox) * ix;
+        double t3 = (bounds[b + 1] - oy) * iy;
+        double t4 = (bounds[b + 4] - oy) * iy;
+        double t5 = (bounds[b + 2] - oz) * iz;
+        double t6 = (bounds[b + 5] - oz) * iz;
+
+        double tmin = Math.max(Math.max(Math.min(t1, t2), Math.min(t3, t4)), 
+                Math.min(t5, t6));
+        double tmax = Math.min(Math.min(Math.max(t1, t2), Math.max(t3, t4)), 
+                Math.max(t5, t6));
+
+        if ((tmax < 0) || (tmin > tmax))
+            return -1;
+
+        return tmin;
+    }
+
+}
@@ -0,0 +1,212 @@
+package net.lavahoppers;
+
+/*
+ * Traversal.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+
+/**
+ * Per-thread working memory for walking acceleration structures.
+ * <p>
+ * Every render thread owns exactly one of these so that tracing a ray never
+ * has to allocate. It holds the node stack used by the traversal, the
+ * closest hit found so far, and counters for how much work each ray took.
+ * 
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class Traversal {
+
+    private static final ArrayList<Traversal> ALL = new ArrayList<Traversal>();
+
+    private static final ThreadLocal<Traversal> LOCAL = 
+        new ThreadLocal<Traversal>() {
+            @Override
+            protected Traversal initialValue() {
+                Traversal state = new Traversal();
+                synchronized (ALL) {
+                    ALL.add(state);
+                }
+                return state;
+            }
+        };
+
+    private int[] stack = new int[64];
+    private int[] topStack = new int[64];
+    private int[] packetStack = new int[128];
+    private RayPacket packet = null;
+    private RayPacket objectPacket = null;
+    private double[] distanceStack = new double[64];
+    private double[] lanes = new double[4];
+
+    /** 
+     * the index within its mesh of the closest triangle hit so far, -1 if
+     * nothing was hit 
+     */
+    public int triangle = -1;
+
+    /** the distance to the closest triangle hit so far */
+    public double distance = Double.MAX_VALUE;
+
+    /**
+     * the barycentric weights of the second and third point of the closest
+     * triangle hit so far
+     */
+    public double u, v;
+
+    /** the instance the closest triangle belongs to */
+    public Instance instance = null;
+
+    /**
+     * the barycentric weights of the last triangle a ray was found to hit,
+     * copied into {@code u} and {@code v} if it is the closest
+     */
+    public double hitU, hitV;
+
+    /** scratch space for a ray moved into the object space of an instance */
+    public final Vector3 objectOrigin = new Vector3();
+    public final Vector3 objectRay = new Vector3();
+
+    /** the number of rays traced by this thread */
+    public long rays = 0;
+
+    /** the number of bounding boxes tested by this thread */
+    public long nodeTests = 0;
+
+    /** the number of triangles tested by this thread */
+    public long triangleTests = 0;
+
+    /**
+     * Get the traversal state of the calling thread
+     * 
+     * @return the traversal state of the calling thread
+     */
+    public static Traversal get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Forget the closest hit so a new ray can be traced
+     */
+    public void reset() {
+        triangle = -1;
+        distance = Double.MAX_VALUE;
+        instance = null;
+    }
+
+    /**
+     * Get a node stack that can hold at least {@code size} entries
+     * <p>
+     * The stack is only reallocated the first time a deeper hierarchy is
+     * walked by this thread.
+     * 
+     * @param size the required number of entries
+     * @return the node stack
+     */
+    public int[] stack(int size) {
+        if (stack.length < size)
+            stack = new int[size];
+        return stack;
+    }
+
+    /**
+     * Get a stack for the entry distances of the nodes on the node stack
+     * 
+     * @param size the required number of entries
+     * @return the distance stack
+     */
+    public double[] distanceStack(int size) {
+        if (distanceStack.length < size)
+            distanceStack = new double[size];
+        return distanceStack;
+    }
+
+    /**
+     * Get scratch space for testing several boxes at once
+     * 
+     * @param size the number of boxes tested at once
+     * @return the scratch space
+     */
+    public double[] lanes(int size) {
+        if (lanes.length < size)
+            lanes = new double[size];
+        return lanes;
+    }
+
+    /**
+     * Get the node stack for the top level of a two level hierarchy
+     * <p>
+     * It is kept apart from {@link #stack(int)} because the meshes are walked
+     * while the top level walk is still in progress.
+     * 
+     * @param size the required number of entries
+     * @return the top level node stack
+     */
+    public int[] topStack(int size) {
+        if (topStack.length < size)
+            topStack = new int[size];
+        return topStack;
+    }
+
+    /**
+     * Get the stack of node and first active ray pairs for walking a mesh
+     * with a packet of rays
+     * <p>
+     * It is kept apart from {@link #stack(int)} because rays that break off
+     * from the packet are walked with that one while the packet walk is still
+     * in progress.
+     * 
+     * @param size the required number of ints
+     * @return the packet stack
+     */
+    public int[] packetStack(int size) {
+        if (packetStack.length < size)
+            packetStack = new int[size];
+        return packetStack;
+    }
+
+    /**
+     * Get the packet of world space rays of this thread
+     * 
+     * @return the packet
+     */
+    public RayPacket packet() {
+        if (packet == null)
+            packet = new RayPacket();
+        return packet;
+    }
+
+    /**
+     * Get scratch space for the rays of {@link #packet()} moved into the
+     * object space of an instance, sharing its hits
+     * 
+     * @return the object space packet
+     */
+    public RayPacket objectPacket() {
+        if (objectPacket == null)
+            objectPacket = new RayPacket(packet());
+        return objectPacket;
+    }
+
+    /**
+     * Get the totals of the counters of every thread that has traced a ray
+     * 
+     * @return the total rays, bounding box tests and triangle tests in that
+     *         order
+     */
+    public static long[] totals() {
+        long[] totals = new long[3];
+        synchronized (ALL) {
+            for (Traversal state : ALL) {
+                totals[0] += state.rays;
+                totals[1] += state.nodeTests;
+                totals[2] += state.triangleTests;
+            }
+        }
+        return totals;
+    }
+
+}
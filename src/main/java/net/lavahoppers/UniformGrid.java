@@ -0,0 +1,382 @@
+package net.lavahoppers;
+
+/*
+ * UniformGrid.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.ArrayList;
+
+/**
+ * A uniform grid over the triangles of a mesh.
+ * <p>
+ * The box around the mesh is cut into equal cells, about 
+ * {@link #DENSITY} of them per triangle, and each cell lists the triangles
+ * whose boxes overlap it. A ray steps from cell to cell in the order it
+ * crosses them and stops at the first cell that contains a hit. Building
+ * takes two passes over the triangles and no sorting at all, and evenly
+ * spread triangles, like those of sparse architectural scenes, cost about
+ * the same to trace as they would in a tree.
+ * <p>
+ * The triangle lists of all cells are packed back to back into one array,
+ * with the start of each cell's list in a second array.
+ * 
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class UniformGrid implements Accelerator {
+
+    /* the number of cells per triangle */
+    private static final double DENSITY = 3.0;
+
+    /* the most cells along any one axis */
+    private static final int MAX_RESOLUTION = 512;
+
+    /* min x, y, z then max x, y, z of the grid */
+    private final double[] rootBounds = new double[6];
+
+    /* the number of cells along x, y and z */
+    private final int[] resolution = new int[3];
+
+    /* the size of a cell along x, y and z */
+    private final double[] cellSize = new double[3];
+
+    /* cells per unit along x, y and z, zero for flat axes */
+    private final double[] cellsPerUnit = new double[3];
+
+    /* where the list of every cell starts in references, plus the end */
+    private final int[] offsets;
+
+    /* the triangle indices of every cell */
+    private final int[] references;
+
+    private final MeshBuffer buffer;
+
+    /**
+     * Build a grid over some triangles
+     * 
+     * @param list   the triangles
+     * @param buffer the geometry the triangles were made from
+     */
+    public UniformGrid(ArrayList<Triangle> list, MeshBuffer buffer) {
+
+        this.buffer = buffer;
+
+        Triangle[] triangles = list.toArray(new Triangle[list.size()]);
+        int n = triangles.length;
+
+        double[] boxes = new double[n * 6];
+        rootBounds[0] = rootBounds[1] = rootBounds[2] = Double.MAX_VALUE;
+        rootBounds[3] = rootBounds[4] = rootBounds[5] = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Triangle tri = triangles[i];
+            for (int k = 0; k < 3; k++) {
+                double a = get(tri.a, k), b = get(tri.b, k), c = get(tri.c, k);
+                boxes[i * 6 + k] = Math.min(a, Math.min(b, c));
+                boxes[i * 6 + k + 3] = Math.max(a, Math.max(b, c));
+                rootBounds[k] = Math.min(rootBounds[k], boxes[i * 6 + k]);
+                rootBounds[k + 3] = 
+                    Math.max(rootBounds[k + 3], boxes[i * 6 + k + 3]);
+            }
+        }
+
+        /* pick a cube shaped cell that gives the wanted number of cells,
+        leaving out flat axes */
+        double measure = 1;
+        int dimensions = 0;
+        for (int k = 0; k < 3; k++)
+            if (0 < rootBounds[k + 3] - rootBounds[k]) {
+                measure *= rootBounds[k + 3] - rootBounds[k];
+                dimensions++;
+            }
+        double side = dimensions == 0 ? 0 : 
+            Math.pow(measure / (DENSITY * Math.max(1, n)), 1.0 / dimensions);
+
+        int cells = 1;
+        for (int k = 0; k < 3; k++) {
+            double extent = rootBounds[k + 3] - rootBounds[k];
+            resolution[k] = extent <= 0 ? 1 : 
+                (int)Math.max(1, Math.min(MAX_RESOLUTION, 
+                    Math.ceil(extent / side)));
+            cellSize[k] = extent / resolution[k];
+            cellsPerUnit[k] = extent <= 0 ? 0 : resolution[k] / extent;
+            cells *= resolution[k];
+        }
+
+        /* count the triangles of every cell, then fill the lists */
+        offsets = new int[cells + 1];
+        int[] range = new int[6];
+        for (int i = 0; i < n; i++) {
+            cellRange(boxes, i, range);
+            for (int z = range[2]; z <= range[5]; z++)
+                for (int y = range[1]; y <= range[4]; y++)
+                    for (int x = range[0]; x <= range[3]; x++)
+                        offsets[cellIndex(x, y, z) + 1]++;
+        }
+
+        for (int c = 0; c < cells; c++)
+            offsets[c + 1] += offsets[c];
+
+        references = new int[offsets[cells]];
+        int[] fill = new int[cells];
+        for (int i = 0; i < n; i++) {
+            cellRange(boxes, i, range);
+            for (int z = range[2]; z <= range[5]; z++)
+                for (int y = range[1]; y <= range[4]; y++)
+                    for (int x = range[0]; x <= range[3]; x++) {
+                        int c = cellIndex(x, y, z);
+                        references[offsets[c] + fill[c]++] = 
+                            triangles[i].index;
+                    }
+        }
+    }
+
+    private static double get(Vector3 v, int axis) {
+        return axis == 0 ? v.getX() : axis == 1 ? v.getY() : v.getZ();
+    }
+
+    /**
+     * Get the cells the box of a triangle overlaps
+     * 
+     * @param boxes the boxes of every triangle
+     * @param i     the triangle
+     * @param out   overridden with the lowest cell along x, y and z followed
+     *              by the highest
+     */
+    private void cellRange(double[] boxes, int i, int[] out) {
+        for (int k = 0; k < 3; k++) {
+            out[k] = cell(boxes[i * 6 + k], k);
+            out[k + 3] = cell(boxes[i * 6 + k + 3], k);
+        }
+    }
+
+    private int cell(double x, int axis) {
+        int c = (int)((x - rootBounds[axis]) * cellsPerUnit[axis]);
+        return c < 0 ? 0 : c < resolution[axis] ? c : resolution[axis] - 1;
+    }
+
+    private int cellIndex(int x, int y, int z) {
+        return x + resolution[0] * (y + resolution[1] * z);
+    }
+
+    /**
+     * Find the closest triangle along a ray
+     * <p>
+     * The cells are stepped through with a 3D digital differential analyzer,
+     * and a hit is final once it lies before the point where the ray leaves
+     * the current cell.
+     * 
+     * @param origin the origin of the ray
+     * @param ray    the ray's direction
+     * @param state  the traversal state of the calling thread
+     */
+    public void intersect(Vector3 origin, Vector3 ray, Traversal state) {
+        walk(origin, ray, Double.MAX_VALUE, false, state);
+    }
+
+    /**
+     * See if anything lies along a ray closer than some distance
+     * 
+     * @param origin      the origin of the ray
+     * @param ray         the ray's direction
+     * @param maxDistance only hits closer than this count
+     * @param state       the traversal state of the calling thread
+     * @return true if a triangle is hit, false otherwise
+     */
+    public boolean occluded(Vector3 origin, Vector3 ray, double maxDistance, 
+            Traversal state) {
+        return walk(origin, ray, maxDistance, true, state);
+    }
+
+    /**
+     * Visit the cells along a ray front to back
+     * 
+     * @param maxDistance the ray ends here
+     * @param any         stop at the first hit rather than the closest
+     * @return true if a triangle closer than {@code maxDistance} was found
+     *         while looking for any hit
+     */
+    private boolean walk(Vector3 origin, Vector3 ray, double maxDistance, 
+            boolean any, Traversal state) {
+
+        double ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        double dx = ray.getX(), dy = ray.getY(), dz = ray.getZ();
+        double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+
+        /* clip the ray to the grid */
+        double t1 = (rootBounds[0] - ox) * ix, t2 = (rootBounds[3] - ox) * ix;
+        double t3 = (rootBounds[1] - oy) * iy, t4 = (rootBounds[4] - oy) * iy;
+        double t5 = (rootBounds[2] - oz) * iz, t6 = (rootBounds[5] - oz) * iz;
+        double tmin = Math.max(Math.max(Math.max(Math.min(t1, t2), 
+            Math.min(t3, t4)), Math.min(t5, t6)), 0);
+        double tmax = Math.min(Math.min(Math.min(Math.max(t1, t2), 
+            Math.max(t3, t4)), Math.max(t5, t6)), maxDistance);
+
+        if (tmax < tmin)
+            return false;
+        if (!any && state.triangle != -1 && state.distance < tmin)
+            return false;
+
+        int x = cell(ox + dx * tmin, 0);
+        int y = cell(oy + dy * tmin, 1);
+        int z = cell(oz + dz * tmin, 2);
+
+        int stepX = 0 < dx ? 1 : dx < 0 ? -1 : 0;
+        int stepY = 0 < dy ? 1 : dy < 0 ? -1 : 0;
+        int stepZ = 0 < dz ? 1 : dz < 0 ? -1 : 0;
+
+        /* the distance to the next cell boundary along each axis and the
+        distance between boundaries */
+        double nextX = boundary(x, stepX, 0, ox, ix);
+        double nextY = boundary(y, stepY, 1, oy, iy);
+        double nextZ = boundary(z, stepZ, 2, oz, iz);
+        double deltaX = stepX == 0 ? Double.MAX_VALUE : cellSize[0] * Math.abs(ix);
+        double deltaY = stepY == 0 ? Double.MAX_VALUE : cellSize[1] * Math.abs(iy);
+        double deltaZ = stepZ == 0 ? Double.MAX_VALUE : cellSize[2] * Math.abs(iz);
+
+        while (true) {
+
+            state.nodeTests++;
+            int c = cellIndex(x, y, z);
+            int end = offsets[c + 1];
+            state.triangleTests += end - offsets[c];
+
+            for (int i = offsets[c]; i < end; i++) {
+
+                double distance = buffer.intersects(references[i], 
+                    ox, oy, oz, dx, dy, dz, state);
+
+                if (distance == -1)
+                    continue;
+
+                if (any) {
+                    if (distance < maxDistance)
+                        return true;
+                } else if (state.triangle == -1 || distance < state.distance) {
+                    state.triangle = references[i];
+                    state.distance = distance;
+                    state.u = state.hitU;
+                    state.v = state.hitV;
+                }
+            }
+
+            double exit = Math.min(nextX, Math.min(nextY, nextZ));
+
+            if (!any && state.triangle != -1 && state.distance <= exit)
+                return false;
+            if (tmax < exit)
+                return false;
+
+            if (nextX == exit) {
+                x += stepX;
+                if (x < 0 || resolution[0] <= x)
+                    return false;
+                nextX += deltaX;
+            } else if (nextY == exit) {
+                y += stepY;
+                if (y < 0 || resolution[1] <= y)
+                    return false;
+                nextY += deltaY;
+            } else {
+                z += stepZ;
+                if (z < 0 || resolution[2] <= z)
+                    return false;
+                nextZ += deltaZ;
+            }
+        }
+    }
+
+    /**
+     * Get the distance along a ray to the far boundary of a cell
+     * 
+     * @param cell the cell along the axis
+     * @param step the direction the ray moves along the axis
+     * @param axis the axis
+     * @param o    the origin of the ray along the axis
+     * @param inv  one over the direction of the ray along the axis
+     * @return the distance to the boundary, infinite if the ray never
+     *         crosses it
+     */
+    private double boundary(int cell, int step, int axis, double o, 
+            double inv) {
+        if (step == 0)
+            return Double.MAX_VALUE;
+        double plane = rootBounds[axis] + 
+            (0 < step ? cell + 1 : cell) * cellSize[axis];
+        return (plane - o) * inv;
+    }
+
+    /**
+     * Cells are placed around where the triangles were, so the grid is built
+     * again instead.
+     * 
+     * @return false, a grid can not be refitted
+     */
+    public boolean refit() {
+        return false;
+    }
+
+    /**
+     * Get the expected cost of tracing a ray through the grid according to
+     * the surface area heuristic
+     * <p>
+     * Every cell is treated like a leaf of a tree: a ray that passes through
+     * it pays one traversal step plus a test for each of its triangles.
+     * 
+     * @see AABB#sahCost()
+     * @return the SAH cost of the grid
+     */
+    public double sahCost() {
+
+        double sx = cellSize[0], sy = cellSize[1], sz = cellSize[2];
+        double cellArea = 2.0 * (sx * sy + sy * sz + sz * sx);
+        double ex = rootBounds[3] - rootBounds[0];
+        double ey = rootBounds[4] - rootBounds[1];
+        double ez = rootBounds[5] - rootBounds[2];
+        double rootArea = 2.0 * (ex * ey + ey * ez + ez * ex);
+
+        int cells = offsets.length - 1;
+        return (cellArea / rootArea) * (AABB.SAH_TRAVERSAL_COST * cells + 
+            AABB.SAH_INTERSECTION_COST * references.length);
+    }
+
+    /**
+     * Get the box around the whole grid as min x, y, z followed by
+     * max x, y, z
+     * 
+     * @return a copy of the bounds of the grid
+     */
+    public double[] getBounds() {
+        return rootBounds.clone();
+    }
+
+    /**
+     * Get the number of bytes the cell offsets and triangle references take
+     * up, counting four bytes per reference
+     * 
+     * @return the size of the grid in bytes, not counting triangles
+     */
+    public long bytes() {
+        return 4L * offsets.length + 4L * references.length;
+    }
+
+    /**
+     * Get the number of cells in the grid
+     * 
+     * @return the number of cells
+     */
+    public int cellCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Get the number of triangle references in the cells
+     * 
+     * @return the number of references
+     */
+    public int referenceCount() {
+        return references.length;
+    }
+
+}
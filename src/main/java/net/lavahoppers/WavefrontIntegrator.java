@@ -0,0 +1,474 @@
+package net.lavahoppers;
+
+/*
+ * WavefrontIntegrator.java
+ * 
+ * 17 Oct 2026
+ */
+
+import java.util.Arrays;
+
+/**
+ * A path tracer that works on large batches of rays, one stage at a time.
+ * <p>
+ * The recursive integrator follows one path to the end before starting the
+ * next, so the bounces of neighbouring pixels go off in random directions and
+ * touch a different part of the scene every time. Here every path of a tile
+ * is advanced together instead: all camera rays are generated, then all of
+ * them are traced, then every hit is shaded, which spawns the next batch of
+ * rays, and so on until no path is left. Between bounces the rays are sorted
+ * by the octant of their direction and the Morton code of their origin, so
+ * rays that start close together and head the same way are traced one after
+ * the other and find the same nodes still in the cache.
+ * <p>
+ * The rays are kept as arrays of coordinates rather than objects, and each
+ * stage is split over the threads of a fork join pool. It computes the same
+ * estimate as the recursive integrator, including the number of scatters
+ * spawned at each hit.
+ * <p>
+ * Every path remembers its sample and how many numbers it has drawn, so its
+ * random numbers do not depend on which thread shades it. The paths a hit
+ * spawns beyond the first get a sample of their own, hashed from their
+ * parent's sample and depth, so they do not repeat each other's numbers.
+ * 
+ * @see PathTracer#renderPixel(int, int)
+ * @version 1.0.1
+ * @author <a href=https://github.com/lavahoppers>Joshua Hopwood</a>
+ */
+class WavefrontIntegrator {
+
+    /* the number of ranges each stage is split into per thread */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final RangePool pool;
+
+    /* the box the ray origins are quantized to for sorting */
+    private final double[] sceneBounds;
+
+    /* the paths being advanced */
+    private Paths paths = new Paths(1024);
+
+    /* the paths spawned by the current bounce, swapped with paths */
+    private Paths next = new Paths(1024);
+
+    /* the color gathered by every pixel of the tile */
+    private double[] red, green, blue;
+
+    /* the lowest x and y value and the width of the tile */
+    private int tileX, tileY, tileWidth;
+
+    /**
+     * The state of every path in a batch, one array entry per path
+     */
+    private static class Paths {
+
+        int count = 0;
+
+        /* the pixel of the tile the path belongs to */
+        int[] pixel;
+
+        /* the sample the path draws its numbers from, and how many it drew */
+        int[] sample;
+        int[] dimension;
+
+        /* the number of surfaces hit before the current ray */
+        int[] depth;
+
+        /* the fraction of the light found that reaches the pixel */
+        double[] weight;
+
+        double[] ox, oy, oz;
+        double[] dx, dy, dz;
+
+        /* the closest hit of the current ray */
+        int[] triangle;
+        double[] distance;
+        double[] u, v;
+        Instance[] instance;
+
+        /* the number of paths a hit spawns and where they start in next */
+        int[] spawned;
+
+        /* the light that left the scene along the ray, added to the pixel */
+        double[] red, green, blue;
+
+        /* the sort key and index of every path */
+        long[] keys;
+
+        Paths(int capacity) {
+            pixel = new int[capacity];
+            sample = new int[capacity];
+            dimension = new int[capacity];
+            depth = new int[capacity];
+            weight = new double[capacity];
+            ox = new double[capacity];
+            oy = new double[capacity];
+            oz = new double[capacity];
+            dx = new double[capacity];
+            dy = new double[capacity];
+            dz = new double[capacity];
+            triangle = new int[capacity];
+            distance = new double[capacity];
+            u = new double[capacity];
+            v = new double[capacity];
+            instance = new Instance[capacity];
+            spawned = new int[capacity + 1];
+            red = new double[capacity];
+            green = new double[capacity];
+            blue = new double[capacity];
+            keys = new long[capacity];
+        }
+
+        int capacity() {
+            return pixel.length;
+        }
+
+        /**
+         * Copy one path from another batch
+         */
+        void copy(int i, Paths from, int j) {
+            pixel[i] = from.pixel[j];
+            sample[i] = from.sample[j];
+            dimension[i] = from.dimension[j];
+            depth[i] = from.depth[j];
+            weight[i] = from.weight[j];
+            ox[i] = from.ox[j];
+            oy[i] = from.oy[j];
+            oz[i] = from.oz[j];
+            dx[i] = from.dx[j];
+            dy[i] = from.dy[j];
+            dz[i] = from.dz[j];
+        }
+    }
+
+    /**
+     * Create an integrator for a scene
+     * 
+     * @param scene   the scene, already built
+     * @param threads the number of threads each stage runs on
+     */
+    public WavefrontIntegrator(Scene scene, int threads) {
+        this.pool = new RangePool(threads, CHUNKS_PER_THREAD);
+        this.sceneBounds = scene.getBounds();
+    }
+
+    /**
+     * Render an area of the image one tile at a time
+     * <p>
+     * All the paths of a tile have to fit in memory at once, so the tiles
+     * are buckets rather than the whole image.
+     * 
+     * @param x      the lowest x value of the area
+     * @param y      the lowest y value of the area
+     * @param width  the width of the area
+     * @param height the height of the area
+     */
+    public void render(int x, int y, int width, int height) {
+        try {
+            int size = PathTracer.BUCKET_SIZE;
+            for (int ty = y; ty < y + height; ty += size)
+                for (int tx = x; tx < x + width; tx += size)
+                    renderTile(tx, ty, Math.min(size, x + width - tx),
+                        Math.min(size, y + height - ty));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Render one tile, advancing all of its paths bounce by bounce
+     */
+    private void renderTile(int x, int y, int width, int height) {
+
+        int pixels = width * height;
+        tileX = x;
+        tileY = y;
+        tileWidth = width;
+        red = new double[pixels];
+        green = new double[pixels];
+        blue = new double[pixels];
+
+        generate(x, y, width, height);
+
+        while (0 < paths.count) {
+            sort();
+            extend();
+            shade();
+            gather();
+            spawn();
+        }
+
+        Vector3 color = new Vector3();
+        for (int i = 0; i < pixels; i++) {
+            color.set(red[i], green[i], blue[i]);
+            PathTracer.writePixel(x + i % width, y + i / width, color);
+        }
+    }
+
+    /**
+     * Make a camera ray for every sample of every pixel of the tile
+     */
+    private void generate(int x, int y, int width, int height) {
+
+        int count = width * height * PathTracer.raysPerPixel;
+        if (paths.capacity() < count)
+            paths = new Paths(count);
+
+        Vector3 origin = PathTracer.cameraLocation;
+        ShadingState scratch = ShadingState.get();
+        Vector3 ray = scratch.ray;
+        Sampler sampler = scratch.sampler;
+        int i = 0;
+        for (int p = 0; p < width * height; p++)
+            for (int s = 0; s < PathTracer.raysPerPixel; s++, i++) {
+                sampler.start(x + p % width, y + p / width, s, 0);
+                PathTracer.getCameraRay(x + p % width, y + p / width, sampler,
+                    ray);
+                paths.pixel[i] = p;
+                paths.sample[i] = s;
+                paths.dimension[i] = sampler.dimension();
+                paths.depth[i] = 0;
+                paths.weight[i] = 1;
+                paths.ox[i] = origin.getX();
+                paths.oy[i] = origin.getY();
+                paths.oz[i] = origin.getZ();
+                paths.dx[i] = ray.getX();
+                paths.dy[i] = ray.getY();
+                paths.dz[i] = ray.getZ();
+            }
+        paths.count = count;
+    }
+
+    /**
+     * Sort the paths by the octant of their direction, then by the Morton
+     * code of their origin within the scene
+     * <p>
+     * Camera rays are already in pixel order, which is as coherent as it
+     * gets, so only bounces are sorted.
+     */
+    private void sort() {
+
+        final Paths p = paths;
+        if (p.depth[0] == 0)
+            return;
+
+        final double[] scale = new double[3];
+        for (int k = 0; k < 3; k++) {
+            double extent = sceneBounds[k + 3] - sceneBounds[k];
+            scale[k] = 0 < extent ? 511 / extent : 0;
+        }
+
+        pool.forEach(p.count, new RangePool.Range() {
+            @Override
+            void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    long octant = (p.dx[i] < 0 ? 4 : 0) |
+                        (p.dy[i] < 0 ? 2 : 0) | (p.dz[i] < 0 ? 1 : 0);
+                    long morton = (spread(cell(p.ox[i], 0, scale)) << 2) |
+                        (spread(cell(p.oy[i], 1, scale)) << 1) |
+                        spread(cell(p.oz[i], 2, scale));
+                    p.keys[i] = ((octant << 27 | morton) << 32) | i;
+                }
+            }
+        });
+
+        Arrays.sort(p.keys, 0, p.count);
+
+        if (next.capacity() < p.count)
+            next = new Paths(p.capacity());
+        for (int i = 0; i < p.count; i++)
+            next.copy(i, p, (int)p.keys[i]);
+        next.count = p.count;
+
+        paths = next;
+        next = p;
+    }
+
+    private int cell(double x, int axis, double[] scale) {
+        int c = (int)((x - sceneBounds[axis]) * scale[axis]);
+        return c < 0 ? 0 : c < 511 ? c : 511;
+    }
+
+    /**
+     * Spread the low 9 bits of a value out so two zero bits follow each
+     */
+    private static long spread(long v) {
+        v &= 0x1FF;
+        v = (v | (v << 16)) & 0x30000FFL;
+        v = (v | (v << 8)) & 0x300F00FL;
+        v = (v | (v << 4)) & 0x30C30C3L;
+        v = (v | (v << 2)) & 0x9249249L;
+        return v;
+    }
+
+    /**
+     * Find the closest hit of every ray
+     */
+    private void extend() {
+
+        final Paths p = paths;
+        final Scene scene = PathTracer.scene;
+
+        pool.forEach(p.count, new RangePool.Range() {
+            @Override
+            void run(int start, int end) {
+                Traversal state = Traversal.get();
+                ShadingState scratch = ShadingState.get();
+                Vector3 origin = scratch.origin;
+                Vector3 ray = scratch.ray;
+                for (int i = start; i < end; i++) {
+                    origin.set(p.ox[i], p.oy[i], p.oz[i]);
+                    ray.set(p.dx[i], p.dy[i], p.dz[i]);
+                    scene.intersect(origin, ray, state);
+                    p.triangle[i] = state.triangle;
+                    p.distance[i] = state.distance;
+                    p.u[i] = state.u;
+                    p.v[i] = state.v;
+                    p.instance[i] = state.instance;
+                }
+            }
+        });
+    }
+
+    /**
+     * Work out what every hit contributes and how many paths it spawns
+     * <p>
+     * A ray that leaves the scene picks up the light of the HDRI, scaled by
+     * the weight of its path. A ray that hits a surface, unless the path is
+     * already {@code ray-bounces} deep, spawns {@code initial-scatters}
+     * paths at the first surface and {@code recursive-scatters} after that.
+     */
+    private void shade() {
+
+        final Paths p = paths;
+        final int bounces = PathTracer.rayBounces;
+
+        pool.forEach(p.count, new RangePool.Range() {
+            @Override
+            void run(int start, int end) {
+                ShadingState scratch = ShadingState.get();
+                Vector3 ray = scratch.ray;
+                Vector3 light = scratch.sampleColor;
+                for (int i = start; i < end; i++) {
+
+                    p.red[i] = p.green[i] = p.blue[i] = 0;
+                    p.spawned[i] = 0;
+
+                    if (p.triangle[i] == -1) {
+                        ray.set(p.dx[i], p.dy[i], p.dz[i]);
+                        Scene.getDirectionalLight(ray, light);
+                        p.red[i] = p.weight[i] * light.getX();
+                        p.green[i] = p.weight[i] * light.getY();
+                        p.blue[i] = p.weight[i] * light.getZ();
+                        continue;
+                    }
+
+                    if (p.depth[i] <= bounces)
+                        p.spawned[i] = p.depth[i] == 0 ?
+                            PathTracer.initialScatters :
+                            PathTracer.recursiveScatters;
+                }
+            }
+        });
+    }
+
+    /**
+     * Add the light found by every path to its pixel
+     * <p>
+     * Paths of one pixel can be anywhere in the batch after sorting, so this
+     * runs on one thread.
+     */
+    private void gather() {
+        Paths p = paths;
+        for (int i = 0; i < p.count; i++) {
+            red[p.pixel[i]] += p.red[i];
+            green[p.pixel[i]] += p.green[i];
+            blue[p.pixel[i]] += p.blue[i];
+        }
+    }
+
+    /**
+     * Scatter new rays off every hit that spawns paths
+     */
+    private void spawn() {
+
+        final Paths p = paths;
+
+        /* turn the counts into offsets into the next batch */
+        int total = 0;
+        for (int i = 0; i < p.count; i++) {
+            int count = p.spawned[i];
+            p.spawned[i] = total;
+            total += count;
+        }
+        p.spawned[p.count] = total;
+
+        if (next.capacity() < total)
+            next = new Paths(total);
+        final Paths n = next;
+
+        pool.forEach(p.count, new RangePool.Range() {
+            @Override
+            void run(int start, int end) {
+
+                ShadingState scratch = ShadingState.get();
+                HitRecord hit = scratch.hit;
+                Vector3 point = hit.point;
+                Vector3 normal = hit.normal;
+                Vector3 ray = scratch.ray;
+                Vector3 scatterRay = scratch.frame(0).ray;
+                Sampler sampler = scratch.sampler;
+
+                for (int i = start; i < end; i++) {
+
+                    int first = p.spawned[i], last = p.spawned[i + 1];
+                    if (first == last)
+                        continue;
+
+                    ray.set(p.dx[i], p.dy[i], p.dz[i]);
+                    hit.set(p.ox[i], p.oy[i], p.oz[i],
+                        p.dx[i], p.dy[i], p.dz[i], p.triangle[i],
+                        p.distance[i], p.u[i], p.v[i], p.instance[i]);
+
+                    int pixel = p.pixel[i];
+                    int x = tileX + pixel % tileWidth;
+                    int y = tileY + pixel / tileWidth;
+
+                    for (int j = first; j < last; j++) {
+
+                        int sample = j == first ? p.sample[i] :
+                            (int)RandomSampler.mix(RandomSampler.mix(
+                                (long)p.sample[i] << 32 | p.dimension[i]) +
+                                j - first);
+                        sampler.start(x, y, sample, p.dimension[i]);
+
+                        double rand = sampler.next();
+                        double weight =
+                            PathTracer.fresnelEffect(ray, normal) < rand ?
+                            PathTracer.getDiffuseScatter(normal, sampler,
+                                scatterRay) :
+                            PathTracer.getSpecularScatter(.2, normal, ray,
+                                sampler, scatterRay);
+
+                        n.pixel[j] = pixel;
+                        n.sample[j] = sample;
+                        n.dimension[j] = sampler.dimension();
+                        n.depth[j] = p.depth[i] + 1;
+                        n.weight[j] = p.weight[i] * weight / (last - first);
+                        n.ox[j] = point.getX();
+                        n.oy[j] = point.getY();
+                        n.oz[j] = point.getZ();
+                        n.dx[j] = scatterRay.getX();
+                        n.dy[j] = scatterRay.getY();
+                        n.dz[j] = scatterRay.getZ();
+                    }
+                }
+            }
+        });
+
+        n.count = total;
+        next = p;
+        paths = n;
+    }
+
+}